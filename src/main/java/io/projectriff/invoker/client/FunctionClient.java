@@ -1,8 +1,12 @@
 package io.projectriff.invoker.client;
 
 import com.google.protobuf.ByteString;
+import com.google.protobuf.UnsafeByteOperations;
 import io.grpc.Channel;
+import io.projectriff.invoker.protocol.ChunkCodec;
+import io.projectriff.invoker.protocol.FrameHeaders;
 import io.projectriff.invoker.rpc.*;
+import org.reactivestreams.Publisher;
 import org.springframework.messaging.Message;
 import org.springframework.messaging.MessageHeaders;
 import org.springframework.messaging.converter.AbstractMessageConverter;
@@ -13,8 +17,8 @@ import org.springframework.messaging.support.MessageBuilder;
 import org.springframework.util.MimeType;
 import org.springframework.util.MimeTypeUtils;
 import reactor.core.publisher.Flux;
-import reactor.core.publisher.GroupedFlux;
 import reactor.core.publisher.Hooks;
+import reactor.util.concurrent.Queues;
 import reactor.util.function.*;
 
 import java.util.*;
@@ -24,26 +28,48 @@ import java.util.function.Function;
  * FunctionClient is a client-side helper class to invoke riff streaming function over gRPC.
  *
  * <p>It performs client-side serialization/deserializaton and mux/demux of parameters and return values.</p>
+ * <p>Callers living in the same JVM as the invoker can also invoke its {@code Riff} service implementation directly, or through
+ * an in-process channel, avoiding the network and the serialization of frames.</p>
  * <p>By default, only a converter for {@code application/json} is set up, but users can override this via {@link #setMessageConverters(AbstractMessageConverter...)}.</p>
  *
- * @param <I> The input type of the function, typically {@code Flux<T>} or {@code TupleN<Flux<T>, Flux<U>, ...>}
- * @param <O> The output type of the function, typically {@code Flux<R>} or {@code TupleM<Flux<R>, Flux<S>, ...>}
+ * @param <I> The input type of the function, typically {@code Flux<T>}, {@code TupleN<Flux<T>, Flux<U>, ...>} or {@code Publisher<?>[]}
+ * @param <O> The output type of the function, typically {@code Flux<R>}, {@code TupleM<Flux<R>, Flux<S>, ...>} or {@code Flux<?>[]}
  * @author Eric Bottard
  */
 public class FunctionClient<I, O> implements Function<I, O> {
 
-    private final ReactorRiffGrpc.ReactorRiffStub riffStub;
+    private final Function<Flux<InputSignal>, Flux<OutputSignal>> transport;
 
     private String supportedOutputTypes;
 
     private final Class[] outputTypes;
+
+    private final boolean arrayResults;
+
+    private boolean timestamps;
+
+    private String functionName;
+
+    private int priority;
+
+    private int chunkSize;
+
     private CompositeMessageConverter messageConverter;
 
     private FunctionClient(Channel channel, Class... outputTypes) {
+        this(channel, false, outputTypes);
+    }
+
+    private FunctionClient(Channel channel, boolean arrayResults, Class... outputTypes) {
+        this(ReactorRiffGrpc.newReactorStub(channel)::invoke, arrayResults, outputTypes);
+    }
+
+    private FunctionClient(Function<Flux<InputSignal>, Flux<OutputSignal>> transport, boolean arrayResults, Class... outputTypes) {
         Hooks.onOperatorDebug();
 
-        this.riffStub = ReactorRiffGrpc.newReactorStub(channel);
+        this.transport = transport;
         this.outputTypes = outputTypes;
+        this.arrayResults = arrayResults;
         setMessageConverters(new MappingJackson2MessageConverter());
     }
 
@@ -79,6 +105,34 @@ public class FunctionClient<I, O> implements Function<I, O> {
         return new FunctionClient<>(channel, outputType1, outputType2, outputType3, outputType4, outputType5, outputType6, outputType7, outputType8);
     }
 
+    /**
+     * Creates a client for a function with any number of inputs and outputs, not limited by the available {@code TupleN} types.
+     * Inputs are passed as an array of {@link Publisher}s, one per input argument, and results are returned as an array of
+     * {@link Flux}es, one per requested output type.
+     */
+    public static FunctionClient<Publisher<?>[], Flux<?>[]> ofArray(Channel channel, Class<?>... outputTypes) {
+        return new FunctionClient<>(channel, true, outputTypes);
+    }
+
+    /**
+     * Creates a client invoking the function of an invoker service (<i>e.g.</i> the invoker's gRPC server adapter)
+     * living in the same JVM directly, with the same mux/demux semantics as over gRPC, but neither network nor
+     * serialization of frames. Invocations made this way have no gRPC deadline, and bypass gRPC server interceptors.
+     */
+    public static <I, O1> FunctionClient<I, Flux<O1>> of(ReactorRiffGrpc.RiffImplBase service, Class<O1> outputType) {
+        return new FunctionClient<>(service::invoke, false, outputType);
+    }
+
+    /**
+     * Creates a client invoking the function of an invoker service living in the same JVM directly, for a function
+     * with any number of inputs and outputs.
+     *
+     * @see #of(ReactorRiffGrpc.RiffImplBase, Class)
+     * @see #ofArray(Channel, Class[])
+     */
+    public static FunctionClient<Publisher<?>[], Flux<?>[]> ofArray(ReactorRiffGrpc.RiffImplBase service, Class<?>... outputTypes) {
+        return new FunctionClient<>(service::invoke, true, outputTypes);
+    }
 
     public void setMessageConverters(AbstractMessageConverter... converters) {
         this.messageConverter = new CompositeMessageConverter(Arrays.asList(converters));
@@ -93,20 +147,65 @@ public class FunctionClient<I, O> implements Function<I, O> {
 
     }
 
+    /**
+     * Sets whether each input frame is stamped with the time it is sent, letting the invoker measure network latency.
+     * The invoker echoes that timestamp back on output frames, along with its own timings.
+     *
+     * @see FrameHeaders#SENT_AT
+     */
+    public void setTimestamps(boolean timestamps) {
+        this.timestamps = timestamps;
+    }
+
+    /**
+     * Sets the name of the function to invoke, among those hosted by the invoker.
+     * If not set, the invoker's default function is invoked.
+     */
+    public void setFunctionName(String functionName) {
+        this.functionName = functionName;
+    }
+
+    /**
+     * Sets the priority of invocations, giving them a larger share of the invoker capacity when it schedules
+     * invocations fairly. Defaults to 0.
+     */
+    public void setPriority(int priority) {
+        this.priority = priority;
+    }
+
+    /**
+     * Sets the size above which input payloads are split into chunks, in bytes, letting payloads larger than the
+     * maximum gRPC message size be sent. Input payloads are never split if not strictly positive, which is the default.
+     * Chunked results are always reassembled.
+     *
+     * @see ChunkCodec
+     */
+    public void setChunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
     @Override
     public O apply(I input) {
 
         int n = this.outputTypes.length;
+        Object[] args = asArgumentArray(input);
 
+        StartFrame.Builder startFrame = StartFrame.newBuilder()
+                .addAllExpectedContentTypes(Collections.nCopies(n, this.supportedOutputTypes));
+        for (int i = 0; i < args.length; i++) {
+            startFrame.addInputNames(String.valueOf(i));
+        }
+        if (functionName != null) {
+            startFrame.setFunctionName(functionName);
+        }
+        startFrame.setPriority(priority);
         InputSignal start = InputSignal.newBuilder()
-                .setStart(StartFrame.newBuilder()
-                        .addAllExpectedContentTypes(Collections.nCopies(n, this.supportedOutputTypes))
-                        .build())
+                .setStart(startFrame)
                 .build();
 
-        Flux<InputSignal> allInputSignals = mergeWithArgIndices(input);
+        Flux<InputSignal> allInputSignals = mergeWithArgIndices(args);
 
-        Flux<OutputSignal> response = riffStub.invoke(Flux.concat(
+        Flux<OutputSignal> response = transport.apply(Flux.concat(
                 Flux.just(start),
                 allInputSignals
         ));
@@ -124,52 +223,37 @@ public class FunctionClient<I, O> implements Function<I, O> {
                 .startWith(Flux.fromArray(usedToForceGroups))
                 .groupBy(sig -> sig.getData().getResultIndex())
                 .take(n)
-                .sort(Comparator.comparingInt(GroupedFlux::key))
-                .map(g -> g.skip(1)/*drop init frames*/.map(s -> convertFromSignal(s, this.outputTypes[g.key()])))
-                .collectList()
-                .block()
-                .toArray(Flux[]::new);
+                // collect directly indexed by result index
+                .collect(() -> new Flux[n], (fluxes, g) -> fluxes[g.key()] = g.skip(1)/*drop init frames*/
+                        .transform(ChunkCodec::assemble)
+                        .map(s -> convertFromSignal(s, this.outputTypes[g.key()])))
+                .block();
+        if (arrayResults) {
+            return (O) fluxArray;
+        }
         return (O) ((fluxArray.length >= 2) ? Tuples.fromArray(fluxArray) : fluxArray[0]);
     }
 
-    private Flux<InputSignal> mergeWithArgIndices(I input) {
-        Flux<InputSignal> allInputSignals = Flux.empty();
-        if (input instanceof Flux) {
-            Flux<?> t1 = (Flux<?>) input;
-            allInputSignals = allInputSignals.mergeWith(t1.map(v -> toRiffSignal(v, 0)));
-        } else {
-            if (input instanceof Tuple2) {
-                Flux<?> t1 = (Flux<?>) ((Tuple2) input).getT1();
-                allInputSignals = allInputSignals.mergeWith(t1.map(v -> toRiffSignal(v, 0)));
-                Flux<?> t2 = (Flux<?>) ((Tuple2) input).getT2();
-                allInputSignals = allInputSignals.mergeWith(t2.map(v -> toRiffSignal(v, 1)));
-            }
-            if (input instanceof Tuple3) {
-                Flux<?> t3 = (Flux<?>) ((Tuple3) input).getT3();
-                allInputSignals = allInputSignals.mergeWith(t3.map(v -> toRiffSignal(v, 2)));
-            }
-            if (input instanceof Tuple4) {
-                Flux<?> t4 = (Flux<?>) ((Tuple4) input).getT4();
-                allInputSignals = allInputSignals.mergeWith(t4.map(v -> toRiffSignal(v, 3)));
-            }
-            if (input instanceof Tuple5) {
-                Flux<?> t5 = (Flux<?>) ((Tuple5) input).getT5();
-                allInputSignals = allInputSignals.mergeWith(t5.map(v -> toRiffSignal(v, 4)));
-            }
-            if (input instanceof Tuple6) {
-                Flux<?> t6 = (Flux<?>) ((Tuple6) input).getT6();
-                allInputSignals = allInputSignals.mergeWith(t6.map(v -> toRiffSignal(v, 5)));
-            }
-            if (input instanceof Tuple7) {
-                Flux<?> t7 = (Flux<?>) ((Tuple7) input).getT7();
-                allInputSignals = allInputSignals.mergeWith(t7.map(v -> toRiffSignal(v, 6)));
-            }
-            if (input instanceof Tuple8) {
-                Flux<?> t8 = (Flux<?>) ((Tuple8) input).getT8();
-                allInputSignals = allInputSignals.mergeWith(t8.map(v -> toRiffSignal(v, 7)));
+    private Flux<InputSignal> mergeWithArgIndices(Object[] args) {
+        Flux<InputSignal>[] withArgIndices = new Flux[args.length];
+        for (int i = 0; i < args.length; i++) {
+            int argIndex = i;
+            withArgIndices[i] = Flux.from((Publisher<?>) args[i]).map(v -> toRiffSignal(v, argIndex));
+            if (chunkSize > 0) {
+                withArgIndices[i] = withArgIndices[i].concatMapIterable(signal -> ChunkCodec.split(signal.getData(), chunkSize));
             }
         }
-        return allInputSignals;
+        return Flux.merge(Queues.SMALL_BUFFER_SIZE, withArgIndices);
+    }
+
+    private Object[] asArgumentArray(I input) {
+        if (input instanceof Object[]) {
+            return (Object[]) input;
+        } else if (input instanceof Tuple2) {
+            return ((Tuple2) input).toArray();
+        } else {
+            return new Object[]{input};
+        }
     }
 
     private Object convertFromSignal(OutputSignal s, Class type) {
@@ -186,12 +270,18 @@ public class FunctionClient<I, O> implements Function<I, O> {
         if (message == null) {
             throw new MessageConversionException("Could not find a suitable converter for value of type " + value.getClass());
         }
+        byte[] payload = (byte[]) message.getPayload();
         InputFrame.Builder frame = InputFrame.newBuilder()
                 .setArgIndex(index)
                 .setContentType(message.getHeaders().get(MessageHeaders.CONTENT_TYPE).toString())
-                .setPayload(ByteString.copyFrom((byte[]) message.getPayload()));
+                // a freshly encoded array can be wrapped as is, but the caller's own array (passed through by the
+                // converter, eg for byte[] values) must be copied, as the caller may mutate it once sent
+                .setPayload(payload == value ? ByteString.copyFrom(payload) : UnsafeByteOperations.unsafeWrap(payload));
         message.getHeaders().forEach((h, v) -> frame.putHeaders(h, v.toString()));
-        
+        if (timestamps) {
+            frame.putHeaders(FrameHeaders.SENT_AT, FrameHeaders.sentAtNow());
+        }
+
         return InputSignal.newBuilder()
                 .setData(frame.build())
                 .build();
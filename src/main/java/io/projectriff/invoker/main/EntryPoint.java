@@ -1,19 +1,47 @@
 package io.projectriff.invoker.main;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
 
+import com.google.protobuf.ByteString;
 import io.grpc.Server;
 import io.grpc.ServerBuilder;
+import io.grpc.ServerInterceptors;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.micrometer.core.instrument.Clock;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.jmx.JmxConfig;
+import io.micrometer.jmx.JmxMeterRegistry;
+import io.opentelemetry.api.GlobalOpenTelemetry;
 import io.projectriff.invoker.rpc.StartFrame;
+import io.projectriff.invoker.server.AdaptiveConcurrencyLimiter;
+import io.projectriff.invoker.server.ErrorReporter;
+import io.projectriff.invoker.server.FairScheduler;
+import io.projectriff.invoker.server.FrameDeduplicator;
+import io.projectriff.invoker.server.FunctionWarmup;
 import io.projectriff.invoker.server.GrpcServerAdapter;
+import io.projectriff.invoker.server.InvokerHealth;
+import io.projectriff.invoker.server.ResultCache;
+import io.projectriff.invoker.server.StateStores;
 
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.cloud.function.context.FunctionCatalog;
 import org.springframework.cloud.function.context.FunctionProperties;
-import org.springframework.context.SmartLifecycle;
+import org.springframework.context.ConfigurableApplicationContext;
 import org.springframework.context.annotation.Bean;
+import org.springframework.core.env.Environment;
 
 /**
  * This is the main entry point for the java function invoker.
@@ -22,58 +50,166 @@ import org.springframework.context.annotation.Bean;
  * Then exposes a gRPC server adapting this function to the riff RPC protocol (muxing/de-muxing input and output values
  * over a single streaming channel). Marshalling and unmarshalling of byte encoded values is performed by Spring Cloud Function
  * itself, according to the incoming {@code Content-Type} header and the {@link StartFrame#getExpectedContentTypesList() expectedContentType} fields.
+ * The standard gRPC health service is exposed alongside, reporting whether the invoker is ready to serve invocations.
+ * Invoker metrics are registered with Micrometer, and exposed over JMX.
+ *
+ * <p>Activating the {@code fast-startup} profile trades some flexibility for faster cold starts: unneeded auto-configurations
+ * are excluded, beans are created lazily and a {@link StartupTimeline startup timeline} is logged.</p>
  *
  * @author Eric Bottard
  */
 @SpringBootApplication
+@EnableConfigurationProperties(InvokerProperties.class)
 public class EntryPoint {
 
+    static final String EXIT_AFTER_START_PROPERTY = "riff.invoker.startup.exit";
+
     @Value("#{systemEnvironment['GRPC_PORT'] ?: 8081}")
     private int grpcPort = 8081;
 
     public static void main(String[] args) throws InterruptedException {
-        SpringApplication.run(EntryPoint.class, args);
-        Object o = new Object();
-        synchronized (o) {
-            o.wait();
+        SpringApplication application = new SpringApplication(EntryPoint.class);
+        application.addListeners(new StartupTimeline());
+        ConfigurableApplicationContext context = application.run(args);
+        if (context.getEnvironment().getProperty(EXIT_AFTER_START_PROPERTY, Boolean.class, false)) {
+            // Used for training runs, eg when generating a class data sharing archive
+            System.exit(SpringApplication.exit(context));
         }
+        context.getBean(InvokerServer.class).awaitTermination();
     }
 
     @Bean
-    public GrpcServerAdapter adapter(FunctionCatalog functionCatalog, FunctionProperties functionProperties) {
-        return new GrpcServerAdapter(
+    public MeterRegistry meterRegistry() {
+        return new JmxMeterRegistry(JmxConfig.DEFAULT, Clock.SYSTEM);
+    }
+
+    @Bean
+    public GrpcServerAdapter adapter(FunctionCatalog functionCatalog, FunctionProperties functionProperties,
+                                     InvokerProperties invokerProperties, MeterRegistry meterRegistry,
+                                     ObjectProvider<StateStores> stateStores) {
+        GrpcServerAdapter adapter = new GrpcServerAdapter(
                 functionCatalog,
                 functionProperties.getDefinition()
         );
+        InvokerProperties.Concurrency concurrency = invokerProperties.getConcurrency();
+        if (concurrency.isEnabled()) {
+            AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(concurrency.getInitialLimit());
+            limiter.setMinLimit(concurrency.getMinLimit());
+            limiter.setMaxLimit(concurrency.getMaxLimit());
+            limiter.setSmoothing(concurrency.getSmoothing());
+            limiter.setTolerance(concurrency.getTolerance());
+            limiter.bindTo(meterRegistry);
+            adapter.setConcurrencyLimiter(limiter);
+        }
+        adapter.setFunctionNames(invokerProperties.getFunctions());
+        InvokerProperties.Errors errors = invokerProperties.getErrors();
+        adapter.setIsolateErrors(errors.isIsolate());
+        adapter.setCorrelationHeader(errors.getCorrelationHeader());
+        ErrorReporter errorReporter = new ErrorReporter();
+        errorReporter.setBurst(errors.getLogBurst());
+        errorReporter.setPeriod(errors.getLogPeriod());
+        errorReporter.setSampleRate(errors.getLogSampleRate());
+        adapter.setErrorReporter(errorReporter);
+        if (invokerProperties.getTracing().isEnabled()) {
+            adapter.setOpenTelemetry(GlobalOpenTelemetry.get());
+        }
+        adapter.setFlightRecorderEvents(invokerProperties.getFlightRecorder().isEnabled());
+        if (invokerProperties.getLatency().isEnabled()) {
+            adapter.setLatencyMetrics(meterRegistry);
+        }
+        stateStores.ifAvailable(adapter::setStateStores);
+        InvokerProperties.Chunks chunks = invokerProperties.getChunks();
+        adapter.setMaxPayloadSize(chunks.getMaxPayloadSize().toBytes());
+        if (chunks.getOutputChunkSize() != null) {
+            adapter.setOutputChunkSize((int) chunks.getOutputChunkSize().toBytes());
+        }
+        InvokerProperties.Partitioning partitioning = invokerProperties.getPartitioning();
+        adapter.setPartitioning(partitioning.getKeyHeader(), partitioning.getLanes());
+        InvokerProperties.Cache cache = invokerProperties.getCache();
+        if (cache.isEnabled()) {
+            ResultCache resultCache = new ResultCache(cache.getMaximumSize().toBytes(), cache.getTimeToLive());
+            resultCache.bindTo(meterRegistry);
+            adapter.setResultCache(resultCache);
+        }
+        InvokerProperties.Dedup dedup = invokerProperties.getDedup();
+        if (dedup.isEnabled()) {
+            FrameDeduplicator deduplicator = new FrameDeduplicator(dedup.getKeyHeader(), dedup.getWindow(), dedup.getMaxKeys());
+            if (dedup.isReplay()) {
+                deduplicator.setReplay(dedup.getMaxReplaySize().toBytes());
+            }
+            deduplicator.bindTo(meterRegistry);
+            adapter.setDeduplicator(deduplicator);
+        }
+        InvokerProperties.Scheduling scheduling = invokerProperties.getScheduling();
+        if (scheduling.isEnabled()) {
+            adapter.setFairScheduler(new FairScheduler(scheduling.getThreads(), scheduling.getQuantum()));
+        }
+        return adapter;
     }
 
     @Bean
-    public SmartLifecycle server(GrpcServerAdapter adapter) {
-        Server server = ServerBuilder.forPort(grpcPort).addService(adapter).build();
-        return new SmartLifecycle() {
+    public FunctionWarmup warmup(FunctionCatalog functionCatalog, FunctionProperties functionProperties,
+                                 InvokerProperties invokerProperties) throws IOException {
+        InvokerProperties.Warmup properties = invokerProperties.getWarmup();
+        List<String> functionNames = new ArrayList<>();
+        functionNames.add(functionProperties.getDefinition());
+        functionNames.addAll(invokerProperties.getFunctions());
+        FunctionWarmup warmup = new FunctionWarmup(functionCatalog, functionNames.toArray(new String[0]));
+        warmup.setIterations(properties.getIterations());
+        warmup.setSynthetic(properties.isSynthetic());
+        warmup.setAccept(properties.getAccept());
+        warmup.setTimeout(properties.getTimeout());
+        if (properties.getSample() != null) {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(properties.getSample().getInputStream(), StandardCharsets.UTF_8))) {
+                List<ByteString> samples = reader.lines()
+                        .filter(line -> !line.isEmpty())
+                        .map(ByteString::copyFromUtf8)
+                        .collect(Collectors.toList());
+                warmup.setSamples(samples, properties.getContentType());
+            }
+        }
+        return warmup;
+    }
 
-            private volatile boolean running;
+    @Bean
+    @ConditionalOnProperty("riff.invoker.reload.enabled")
+    public FunctionReloader reloader(GrpcServerAdapter adapter, FunctionWarmup warmup, InvokerProperties invokerProperties,
+                                     ApplicationArguments arguments, Environment environment) {
+        return new FunctionReloader(adapter,
+                Paths.get(environment.getRequiredProperty("spring.cloud.function.location")),
+                arguments.getSourceArgs(),
+                invokerProperties.getWarmup().isEnabled() ? warmup : null,
+                invokerProperties.getReload().getInterval());
+    }
 
-            @Override
-            public void start() {
-                try {
-                    server.start();
-                    running = true;
-                } catch (IOException e) {
-                    throw new RuntimeException(e);
-                }
-            }
+    @Bean
+    @ConditionalOnProperty("riff.invoker.state.enabled")
+    public StateStores stateStores(InvokerProperties invokerProperties) throws IOException {
+        InvokerProperties.State state = invokerProperties.getState();
+        return new StateStores(state.getDirectory(), (int) state.getInitialSize().toBytes(), state.getFlushInterval());
+    }
 
-            @Override
-            public void stop() {
-                server.shutdown();
-                running = false;
-            }
+    @Bean
+    public InvokerHealth health() {
+        return new InvokerHealth();
+    }
 
-            @Override
-            public boolean isRunning() {
-                return running;
-            }
-        };
+    @Bean
+    public InvokerServer server(GrpcServerAdapter adapter, InvokerHealth health, FunctionWarmup warmup, InvokerProperties invokerProperties) {
+        List<Server> servers = new ArrayList<>();
+        servers.add(ServerBuilder.forPort(grpcPort)
+                .addService(ServerInterceptors.intercept(adapter, health))
+                .addService(health.getHealthService())
+                .build());
+        String inProcessName = invokerProperties.getInProcess().getName();
+        if (inProcessName != null) {
+            servers.add(InProcessServerBuilder.forName(inProcessName)
+                    .addService(ServerInterceptors.intercept(adapter, health))
+                    .addService(health.getHealthService())
+                    .build());
+        }
+        return new InvokerServer(servers, health,
+                invokerProperties.getWarmup().isEnabled() ? warmup : null,
+                invokerProperties.getShutdown().getDrainTimeout());
     }
 }
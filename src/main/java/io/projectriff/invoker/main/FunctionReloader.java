@@ -0,0 +1,190 @@
+package io.projectriff.invoker.main;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import io.projectriff.invoker.server.FunctionWarmup;
+import io.projectriff.invoker.server.GrpcServerAdapter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.springframework.boot.Banner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.context.logging.LoggingApplicationListener;
+import org.springframework.cloud.function.context.FunctionCatalog;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.SmartLifecycle;
+
+/**
+ * Reloads the function when its jar changes, without restarting the invoker.
+ *
+ * <p>The function location is polled, and once a change has settled (the file looks the same on two successive polls),
+ * the function is loaded in a fresh application context, with its own class loader. Its functions are warmed up, then
+ * the {@link GrpcServerAdapter} switches new invocations over to them, while invocations in flight drain on the previous
+ * version. The context of the previous version is closed once they have completed. A version that fails to load is
+ * logged and ignored, the invoker keeps serving the current one.</p>
+ */
+class FunctionReloader implements SmartLifecycle {
+
+    private static final Logger logger = LoggerFactory.getLogger(FunctionReloader.class);
+
+    private final GrpcServerAdapter adapter;
+
+    private final Path location;
+
+    private final String[] args;
+
+    private final FunctionWarmup warmup;
+
+    private final Duration interval;
+
+    private volatile ScheduledExecutorService executor;
+
+    private Object loaded;
+
+    private Object changed;
+
+    private ConfigurableApplicationContext current;
+
+    /**
+     * @param args    the arguments of the invoker, the new versions of the function are configured the same way
+     * @param warmup  the warm-up to perform on new versions of the function before switching to them, or null
+     */
+    FunctionReloader(GrpcServerAdapter adapter, Path location, String[] args, FunctionWarmup warmup, Duration interval) {
+        this.adapter = adapter;
+        this.location = location;
+        this.args = args;
+        this.warmup = warmup;
+        this.interval = interval;
+    }
+
+    @Override
+    public void start() {
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "riff-function-reloader");
+            thread.setDaemon(true);
+            return thread;
+        });
+        loaded = signature();
+        executor.scheduleWithFixedDelay(this::poll, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+        logger.info("Watching {} for new versions of the function", location);
+    }
+
+    @Override
+    public void stop() {
+        executor.shutdownNow();
+        try {
+            executor.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        executor = null;
+        if (current != null) {
+            current.close();
+            current = null;
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return executor != null;
+    }
+
+    /**
+     * Starts before and stops after the {@link InvokerServer}, so that invocations have drained when the function
+     * context is closed.
+     */
+    @Override
+    public int getPhase() {
+        return DEFAULT_PHASE - 1;
+    }
+
+    private void poll() {
+        Object signature = signature();
+        if (signature == null || signature.equals(loaded)) {
+            changed = null;
+        } else if (!signature.equals(changed)) {
+            // still being written, or just done: wait for the next poll
+            changed = signature;
+        } else {
+            reload();
+            loaded = signature;
+            changed = null;
+        }
+    }
+
+    private void reload() {
+        long start = System.nanoTime();
+        ConfigurableApplicationContext context = null;
+        FunctionCatalog functionCatalog;
+        try {
+            context = newFunctionContext();
+            functionCatalog = context.getBean(FunctionCatalog.class);
+            if (warmup != null) {
+                warmup.forCatalog(functionCatalog).run();
+            }
+        } catch (RuntimeException e) {
+            logger.error("Could not load new version of the function from {}, keeping the current one", location, e);
+            if (context != null) {
+                context.close();
+            }
+            return;
+        }
+        // closing a context is slow, keep it off the thread completing the last invocation
+        ConfigurableApplicationContext loadedContext = context;
+        adapter.setFunctionCatalog(functionCatalog, () -> closeLater(loadedContext));
+        current = context;
+        logger.info("Switched to new version of the function from {} in {} ms",
+                location, Duration.ofNanos(System.nanoTime() - start).toMillis());
+    }
+
+    private ConfigurableApplicationContext newFunctionContext() {
+        SpringApplication application = new SpringApplication(FunctionApplication.class);
+        application.setWebApplicationType(WebApplicationType.NONE);
+        application.setBannerMode(Banner.Mode.OFF);
+        // logging is already set up by the invoker, and must not be reset
+        application.setListeners(application.getListeners().stream()
+                .filter(listener -> !(listener instanceof LoggingApplicationListener))
+                .collect(Collectors.toList()));
+        return application.run(args);
+    }
+
+    private void closeLater(ConfigurableApplicationContext context) {
+        ScheduledExecutorService executor = this.executor;
+        if (executor == null || executor.isShutdown()) {
+            context.close();
+        } else {
+            executor.execute(context::close);
+        }
+    }
+
+    /**
+     * Returns an object that changes whenever the function jar changes, or null if it can't be read.
+     */
+    private Object signature() {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(location, BasicFileAttributes.class);
+            return Arrays.asList(attributes.lastModifiedTime(), attributes.size(), attributes.fileKey());
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * The configuration of the contexts of new versions of the function, where Spring Cloud Function auto-configuration
+     * deploys the function from its location, as in the invoker.
+     */
+    @EnableAutoConfiguration
+    static class FunctionApplication {
+    }
+}
@@ -0,0 +1,817 @@
+package io.projectriff.invoker.main;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.core.io.Resource;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * Configuration properties of the invoker itself, as opposed to those of the function it exposes
+ * (which are set via Spring Cloud Function properties).
+ *
+ * @see org.springframework.cloud.function.context.FunctionProperties
+ */
+@ConfigurationProperties("riff.invoker")
+public class InvokerProperties {
+
+    /**
+     * Names (or composition definitions) of additional functions hosted by the invoker, besides the one set via
+     * {@code spring.cloud.function.definition}. Invocations select one of them by name in their start frame.
+     */
+    private List<String> functions = new ArrayList<>();
+
+    private final Warmup warmup = new Warmup();
+
+    private final Shutdown shutdown = new Shutdown();
+
+    private final Concurrency concurrency = new Concurrency();
+
+    private final Errors errors = new Errors();
+
+    private final Tracing tracing = new Tracing();
+
+    private final FlightRecorder flightRecorder = new FlightRecorder();
+
+    private final Latency latency = new Latency();
+
+    private final Reload reload = new Reload();
+
+    private final Chunks chunks = new Chunks();
+
+    private final State state = new State();
+
+    private final Partitioning partitioning = new Partitioning();
+
+    private final Cache cache = new Cache();
+
+    private final Dedup dedup = new Dedup();
+
+    private final Scheduling scheduling = new Scheduling();
+
+    private final InProcess inProcess = new InProcess();
+
+    public List<String> getFunctions() {
+        return functions;
+    }
+
+    public void setFunctions(List<String> functions) {
+        this.functions = functions;
+    }
+
+    public Warmup getWarmup() {
+        return warmup;
+    }
+
+    public Shutdown getShutdown() {
+        return shutdown;
+    }
+
+    public Concurrency getConcurrency() {
+        return concurrency;
+    }
+
+    public Errors getErrors() {
+        return errors;
+    }
+
+    public Tracing getTracing() {
+        return tracing;
+    }
+
+    public FlightRecorder getFlightRecorder() {
+        return flightRecorder;
+    }
+
+    public Latency getLatency() {
+        return latency;
+    }
+
+    public Reload getReload() {
+        return reload;
+    }
+
+    public Chunks getChunks() {
+        return chunks;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public Partitioning getPartitioning() {
+        return partitioning;
+    }
+
+    public Cache getCache() {
+        return cache;
+    }
+
+    public Dedup getDedup() {
+        return dedup;
+    }
+
+    public Scheduling getScheduling() {
+        return scheduling;
+    }
+
+    public InProcess getInProcess() {
+        return inProcess;
+    }
+
+    /**
+     * Controls the warm-up phase happening before the gRPC server starts accepting invocations.
+     */
+    public static class Warmup {
+
+        /**
+         * Whether to warm up the function before accepting invocations.
+         */
+        private boolean enabled = true;
+
+        /**
+         * How many times the warm-up invocation is performed.
+         */
+        private int iterations = 10;
+
+        /**
+         * An optional file containing sample payloads for the first input of the function, one per line.
+         * If not set, the function is only resolved, unless synthetic warm-up invocations are enabled.
+         */
+        private Resource sample;
+
+        /**
+         * Whether to invoke functions without samples with a synthetic JSON payload on each input, derived from its
+         * type. This runs the function on made up values, which it must accept without side effects.
+         */
+        private boolean synthetic;
+
+        /**
+         * The content type of the sample payloads.
+         */
+        private String contentType = "application/json";
+
+        /**
+         * The content type requested for each output of the function during warm-up.
+         */
+        private String accept = "application/json";
+
+        /**
+         * How long to wait for each warm-up invocation to complete. A function not completing in time is not warmed
+         * up any further.
+         */
+        private Duration timeout = Duration.ofSeconds(5);
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getIterations() {
+            return iterations;
+        }
+
+        public void setIterations(int iterations) {
+            this.iterations = iterations;
+        }
+
+        public Resource getSample() {
+            return sample;
+        }
+
+        public void setSample(Resource sample) {
+            this.sample = sample;
+        }
+
+        public boolean isSynthetic() {
+            return synthetic;
+        }
+
+        public void setSynthetic(boolean synthetic) {
+            this.synthetic = synthetic;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        public void setContentType(String contentType) {
+            this.contentType = contentType;
+        }
+
+        public String getAccept() {
+            return accept;
+        }
+
+        public void setAccept(String accept) {
+            this.accept = accept;
+        }
+
+        public Duration getTimeout() {
+            return timeout;
+        }
+
+        public void setTimeout(Duration timeout) {
+            this.timeout = timeout;
+        }
+    }
+
+    /**
+     * Controls how the invoker drains invocations on shutdown.
+     */
+    public static class Shutdown {
+
+        /**
+         * How long in-flight invocations are given to complete on shutdown, before being forcefully closed.
+         */
+        private Duration drainTimeout = Duration.ofSeconds(20);
+
+        public Duration getDrainTimeout() {
+            return drainTimeout;
+        }
+
+        public void setDrainTimeout(Duration drainTimeout) {
+            this.drainTimeout = drainTimeout;
+        }
+    }
+
+    /**
+     * Controls the adaptive limit on concurrent invocations.
+     */
+    public static class Concurrency {
+
+        /**
+         * Whether to limit concurrent invocations, rejecting those exceeding the limit.
+         */
+        private boolean enabled = false;
+
+        /**
+         * The limit in effect until enough latency samples have been observed.
+         */
+        private int initialLimit = 20;
+
+        /**
+         * The limit never goes below that value.
+         */
+        private int minLimit = 1;
+
+        /**
+         * The limit never goes above that value.
+         */
+        private int maxLimit = 1000;
+
+        /**
+         * How much of a newly computed limit is applied at once, between 0 and 1.
+         */
+        private double smoothing = 0.2;
+
+        /**
+         * How much latency may degrade compared to its long term average (as a ratio) before the limit is reduced.
+         */
+        private double tolerance = 1.5;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getInitialLimit() {
+            return initialLimit;
+        }
+
+        public void setInitialLimit(int initialLimit) {
+            this.initialLimit = initialLimit;
+        }
+
+        public int getMinLimit() {
+            return minLimit;
+        }
+
+        public void setMinLimit(int minLimit) {
+            this.minLimit = minLimit;
+        }
+
+        public int getMaxLimit() {
+            return maxLimit;
+        }
+
+        public void setMaxLimit(int maxLimit) {
+            this.maxLimit = maxLimit;
+        }
+
+        public double getSmoothing() {
+            return smoothing;
+        }
+
+        public void setSmoothing(double smoothing) {
+            this.smoothing = smoothing;
+        }
+
+        public double getTolerance() {
+            return tolerance;
+        }
+
+        public void setTolerance(double tolerance) {
+            this.tolerance = tolerance;
+        }
+    }
+
+    /**
+     * Controls how invocation errors are reported.
+     */
+    public static class Errors {
+
+        /**
+         * Whether a frame failing conversion or processing produces an error frame while the invocation keeps flowing,
+         * rather than terminating the invocation. Errors signalled within streaming functions are not isolated.
+         */
+        private boolean isolate = false;
+
+        /**
+         * The header identifying a frame, copied from a failing frame onto the error frame it produces.
+         */
+        private String correlationHeader = "correlationId";
+
+        /**
+         * How many errors of a given type are logged with their stack trace in each log period.
+         */
+        private int logBurst = 5;
+
+        /**
+         * The period over which the errors logged with their stack trace are counted.
+         */
+        private Duration logPeriod = Duration.ofSeconds(10);
+
+        /**
+         * Past the burst of each period, only one error of a given type in that many is logged (without stack trace).
+         */
+        private int logSampleRate = 100;
+
+        public boolean isIsolate() {
+            return isolate;
+        }
+
+        public void setIsolate(boolean isolate) {
+            this.isolate = isolate;
+        }
+
+        public String getCorrelationHeader() {
+            return correlationHeader;
+        }
+
+        public void setCorrelationHeader(String correlationHeader) {
+            this.correlationHeader = correlationHeader;
+        }
+
+        public int getLogBurst() {
+            return logBurst;
+        }
+
+        public void setLogBurst(int logBurst) {
+            this.logBurst = logBurst;
+        }
+
+        public Duration getLogPeriod() {
+            return logPeriod;
+        }
+
+        public void setLogPeriod(Duration logPeriod) {
+            this.logPeriod = logPeriod;
+        }
+
+        public int getLogSampleRate() {
+            return logSampleRate;
+        }
+
+        public void setLogSampleRate(int logSampleRate) {
+            this.logSampleRate = logSampleRate;
+        }
+    }
+
+    /**
+     * Controls the tracing of frames with OpenTelemetry.
+     */
+    public static class Tracing {
+
+        /**
+         * Whether to create a span per frame and propagate W3C trace context from input frames to output frames.
+         * Spans are exported (and sampled) according to the OpenTelemetry SDK or agent set up for the JVM, if any.
+         */
+        private boolean enabled = true;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+    }
+
+    /**
+     * Controls the Java Flight Recorder events emitted by the invoker.
+     */
+    public static class FlightRecorder {
+
+        /**
+         * Whether to emit events for invocations and frames. Events are only recorded while a recording enabling them
+         * is in progress, so this only needs to be turned off to shave the last enablement checks off the hot path.
+         */
+        private boolean enabled = true;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+    }
+
+    /**
+     * Controls the latency metrics of frames.
+     */
+    public static class Latency {
+
+        /**
+         * Whether to record network, queueing, processing and total latency histograms per function and argument/result
+         * index, and echo server timings on output frames.
+         */
+        private boolean enabled = false;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+    }
+
+    /**
+     * Controls the hot reload of the function when its jar changes.
+     */
+    public static class Reload {
+
+        /**
+         * Whether to watch {@code spring.cloud.function.location} and switch to new versions of the function without
+         * restarting the invoker.
+         */
+        private boolean enabled = false;
+
+        /**
+         * How often to check the function location for changes.
+         */
+        private Duration interval = Duration.ofSeconds(2);
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public Duration getInterval() {
+            return interval;
+        }
+
+        public void setInterval(Duration interval) {
+            this.interval = interval;
+        }
+    }
+
+    /**
+     * Controls how payloads too large for a single frame are split into chunks.
+     */
+    public static class Chunks {
+
+        /**
+         * The maximum size of an input payload reassembled from chunks. Payloads streamed to functions accepting an
+         * {@code InputStream} are not limited.
+         */
+        private DataSize maxPayloadSize = DataSize.ofMegabytes(64);
+
+        /**
+         * The size above which output payloads are split into chunks. If not set, output payloads are never split.
+         */
+        private DataSize outputChunkSize;
+
+        public DataSize getMaxPayloadSize() {
+            return maxPayloadSize;
+        }
+
+        public void setMaxPayloadSize(DataSize maxPayloadSize) {
+            this.maxPayloadSize = maxPayloadSize;
+        }
+
+        public DataSize getOutputChunkSize() {
+            return outputChunkSize;
+        }
+
+        public void setOutputChunkSize(DataSize outputChunkSize) {
+            this.outputChunkSize = outputChunkSize;
+        }
+    }
+
+    /**
+     * Controls the keyed state stores made available to functions.
+     */
+    public static class State {
+
+        /**
+         * Whether to provide functions with a state store, in the Reactor Context of their invocations.
+         */
+        private boolean enabled = false;
+
+        /**
+         * The directory holding the state files, one per function. Mount a persistent volume there for state to
+         * survive restarts of the pod.
+         */
+        private Path directory = Paths.get(System.getProperty("java.io.tmpdir"), "riff-state");
+
+        /**
+         * The initial size of the file of each state store, grown as needed.
+         */
+        private DataSize initialSize = DataSize.ofMegabytes(16);
+
+        /**
+         * How often to make state changes durable.
+         */
+        private Duration flushInterval = Duration.ofSeconds(5);
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public Path getDirectory() {
+            return directory;
+        }
+
+        public void setDirectory(Path directory) {
+            this.directory = directory;
+        }
+
+        public DataSize getInitialSize() {
+            return initialSize;
+        }
+
+        public void setInitialSize(DataSize initialSize) {
+            this.initialSize = initialSize;
+        }
+
+        public Duration getFlushInterval() {
+            return flushInterval;
+        }
+
+        public void setFlushInterval(Duration flushInterval) {
+            this.flushInterval = flushInterval;
+        }
+    }
+
+    /**
+     * Controls how the inputs of single-input functions are partitioned into parallel lanes.
+     */
+    public static class Partitioning {
+
+        /**
+         * The number of parallel lanes, each applying the function on its own thread. Inputs are not partitioned if
+         * less than 2.
+         */
+        private int lanes = 1;
+
+        /**
+         * The header whose value selects the lane of an input. Inputs sharing the same value are processed in order.
+         */
+        private String keyHeader = "partition-key";
+
+        public int getLanes() {
+            return lanes;
+        }
+
+        public void setLanes(int lanes) {
+            this.lanes = lanes;
+        }
+
+        public String getKeyHeader() {
+            return keyHeader;
+        }
+
+        public void setKeyHeader(String keyHeader) {
+            this.keyHeader = keyHeader;
+        }
+    }
+
+    /**
+     * Controls the memoization of the results of pure functions.
+     */
+    public static class Cache {
+
+        /**
+         * Whether to memoize the results of functions of single values. Only enable for pure functions, whose result
+         * only depends on the input payload.
+         */
+        private boolean enabled = false;
+
+        /**
+         * The maximum total size of the results held.
+         */
+        private DataSize maximumSize = DataSize.ofMegabytes(64);
+
+        /**
+         * How long results are held after being computed.
+         */
+        private Duration timeToLive = Duration.ofMinutes(10);
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public DataSize getMaximumSize() {
+            return maximumSize;
+        }
+
+        public void setMaximumSize(DataSize maximumSize) {
+            this.maximumSize = maximumSize;
+        }
+
+        public Duration getTimeToLive() {
+            return timeToLive;
+        }
+
+        public void setTimeToLive(Duration timeToLive) {
+            this.timeToLive = timeToLive;
+        }
+    }
+
+    /**
+     * Controls the deduplication of input frames redelivered by upstreams, by their idempotency key.
+     */
+    public static class Dedup {
+
+        /**
+         * Whether to recognize input frames whose idempotency key was already seen.
+         */
+        private boolean enabled = false;
+
+        /**
+         * The header carrying the idempotency key of input frames.
+         */
+        private String keyHeader = "idempotency-key";
+
+        /**
+         * How long idempotency keys are remembered.
+         */
+        private Duration window = Duration.ofMinutes(5);
+
+        /**
+         * The maximum number of idempotency keys remembered, at about 16 bytes each. Past that, keys are remembered for
+         * less than the window.
+         */
+        private int maxKeys = 1_000_000;
+
+        /**
+         * Whether duplicates are answered with the result of the original frame, rather than dropped. Only applies to
+         * functions of single values.
+         */
+        private boolean replay = false;
+
+        /**
+         * The maximum total size of the results held for replay.
+         */
+        private DataSize maxReplaySize = DataSize.ofMegabytes(64);
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public String getKeyHeader() {
+            return keyHeader;
+        }
+
+        public void setKeyHeader(String keyHeader) {
+            this.keyHeader = keyHeader;
+        }
+
+        public Duration getWindow() {
+            return window;
+        }
+
+        public void setWindow(Duration window) {
+            this.window = window;
+        }
+
+        public int getMaxKeys() {
+            return maxKeys;
+        }
+
+        public void setMaxKeys(int maxKeys) {
+            this.maxKeys = maxKeys;
+        }
+
+        public boolean isReplay() {
+            return replay;
+        }
+
+        public void setReplay(boolean replay) {
+            this.replay = replay;
+        }
+
+        public DataSize getMaxReplaySize() {
+            return maxReplaySize;
+        }
+
+        public void setMaxReplaySize(DataSize maxReplaySize) {
+            this.maxReplaySize = maxReplaySize;
+        }
+    }
+
+    /**
+     * Controls the fair sharing of worker threads between concurrent invocations.
+     */
+    public static class Scheduling {
+
+        /**
+         * Whether to process frames on worker threads shared fairly between invocations, rather than on the threads
+         * delivering them.
+         */
+        private boolean enabled = false;
+
+        /**
+         * The number of worker threads.
+         */
+        private int threads = Runtime.getRuntime().availableProcessors();
+
+        /**
+         * The processing time credited to invocations of priority 0 in each round. Invocations of priority n are
+         * credited n + 1 times as much.
+         */
+        private Duration quantum = Duration.ofMillis(1);
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getThreads() {
+            return threads;
+        }
+
+        public void setThreads(int threads) {
+            this.threads = threads;
+        }
+
+        public Duration getQuantum() {
+            return quantum;
+        }
+
+        public void setQuantum(Duration quantum) {
+            this.quantum = quantum;
+        }
+    }
+
+    /**
+     * Controls the in-process gRPC server, for callers living in the same JVM as the invoker.
+     */
+    public static class InProcess {
+
+        /**
+         * The name of the in-process server, which callers connect to with an {@code InProcessChannelBuilder}. If not
+         * set, no in-process server is started.
+         */
+        private String name;
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package io.projectriff.invoker.main;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import io.grpc.Server;
+import io.projectriff.invoker.server.FunctionWarmup;
+import io.projectriff.invoker.server.InvokerHealth;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.springframework.context.SmartLifecycle;
+
+/**
+ * Manages the lifecycle of the invoker gRPC servers: the network server, and the in-process server used by callers
+ * living in the same JVM, if enabled.
+ *
+ * <p>On start, the server starts listening (reporting not serving), warms up the function then reports serving.
+ * On stop, the server drains: it reports not serving and stops accepting new invocations, lets in-flight invocations
+ * complete up to a deadline, then forcefully closes those remaining.</p>
+ */
+class InvokerServer implements SmartLifecycle {
+
+    private static final Logger logger = LoggerFactory.getLogger(InvokerServer.class);
+
+    private final List<Server> servers;
+
+    private final InvokerHealth health;
+
+    private final FunctionWarmup warmup;
+
+    private final Duration drainTimeout;
+
+    private volatile boolean running;
+
+    /**
+     * @param warmup the warm-up to perform before serving, or null
+     */
+    InvokerServer(List<Server> servers, InvokerHealth health, FunctionWarmup warmup, Duration drainTimeout) {
+        this.servers = servers;
+        this.health = health;
+        this.warmup = warmup;
+        this.drainTimeout = drainTimeout;
+    }
+
+    @Override
+    public void start() {
+        try {
+            for (Server server : servers) {
+                server.start();
+            }
+            running = true;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        if (warmup != null) {
+            warmup.run();
+        }
+        health.serving();
+    }
+
+    @Override
+    public void stop() {
+        health.draining();
+        servers.forEach(Server::shutdown);
+        long deadline = System.nanoTime() + drainTimeout.toNanos();
+        try {
+            for (Server server : servers) {
+                if (!server.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                    logger.warn("Invocations still in flight after {}, closing them", drainTimeout);
+                    server.shutdownNow().awaitTermination(1, TimeUnit.SECONDS);
+                }
+            }
+        } catch (InterruptedException e) {
+            servers.forEach(Server::shutdownNow);
+            Thread.currentThread().interrupt();
+        }
+        running = false;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Blocks until the servers have terminated.
+     */
+    void awaitTermination() throws InterruptedException {
+        for (Server server : servers) {
+            server.awaitTermination();
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package io.projectriff.invoker.main;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.config.InstantiationAwareBeanPostProcessor;
+import org.springframework.boot.context.event.ApplicationEnvironmentPreparedEvent;
+import org.springframework.boot.context.event.ApplicationPreparedEvent;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.boot.context.event.ApplicationStartedEvent;
+import org.springframework.boot.context.event.ApplicationStartingEvent;
+import org.springframework.boot.context.event.SpringApplicationEvent;
+import org.springframework.context.ApplicationListener;
+
+/**
+ * Records the time at which the main phases of the invoker startup happen (measured from JVM start, so that class
+ * loading before {@code main()} is accounted for) as well as the time taken to create each bean, and logs a report
+ * once the application is ready.
+ *
+ * <p>The report is only logged when {@value #REPORT_PROPERTY} is set, which the {@code fast-startup} profile does.</p>
+ */
+class StartupTimeline implements ApplicationListener<SpringApplicationEvent> {
+
+    static final String REPORT_PROPERTY = "riff.invoker.startup.report";
+
+    private static final int SLOWEST_BEANS = 10;
+
+    private static final Logger logger = LoggerFactory.getLogger(StartupTimeline.class);
+
+    private final Map<String, Long> phases = new LinkedHashMap<>();
+
+    private final Map<String, Long> beanStarts = new ConcurrentHashMap<>();
+
+    private final Map<String, Long> beanDurations = new ConcurrentHashMap<>();
+
+    private boolean enabled;
+
+    @Override
+    public void onApplicationEvent(SpringApplicationEvent event) {
+        if (event instanceof ApplicationStartingEvent) {
+            phases.put("main() entered", uptime());
+        } else if (event instanceof ApplicationEnvironmentPreparedEvent) {
+            phases.put("environment prepared", uptime());
+            enabled = ((ApplicationEnvironmentPreparedEvent) event).getEnvironment()
+                    .getProperty(REPORT_PROPERTY, Boolean.class, false);
+        } else if (event instanceof ApplicationPreparedEvent) {
+            phases.put("context prepared", uptime());
+            if (enabled) {
+                ((ApplicationPreparedEvent) event).getApplicationContext().getBeanFactory()
+                        .addBeanPostProcessor(new BeanTimer());
+            }
+        } else if (event instanceof ApplicationStartedEvent) {
+            phases.put("context refreshed, gRPC server started", uptime());
+        } else if (event instanceof ApplicationReadyEvent) {
+            phases.put("application ready", uptime());
+            if (enabled) {
+                logger.info(report());
+            }
+        }
+    }
+
+    private String report() {
+        StringBuilder sb = new StringBuilder("Startup timeline (ms since JVM start):");
+        phases.forEach((phase, at) -> sb.append(String.format("%n  %6d  %s", at, phase)));
+
+        List<Map.Entry<String, Long>> beans = new ArrayList<>(beanDurations.entrySet());
+        beans.sort(Map.Entry.<String, Long>comparingByValue(Comparator.reverseOrder()));
+        sb.append(String.format("%nSlowest beans (ms, including dependencies):"));
+        beans.stream().limit(SLOWEST_BEANS)
+                .forEach(e -> sb.append(String.format("%n  %6d  %s", e.getValue() / 1_000_000, e.getKey())));
+        return sb.toString();
+    }
+
+    private static long uptime() {
+        return ManagementFactory.getRuntimeMXBean().getUptime();
+    }
+
+    private class BeanTimer implements InstantiationAwareBeanPostProcessor {
+
+        @Override
+        public Object postProcessBeforeInstantiation(Class<?> beanClass, String beanName) throws BeansException {
+            beanStarts.putIfAbsent(beanName, System.nanoTime());
+            return null;
+        }
+
+        @Override
+        public Object postProcessAfterInitialization(Object bean, String beanName) throws BeansException {
+            Long start = beanStarts.remove(beanName);
+            if (start != null) {
+                beanDurations.put(beanName, System.nanoTime() - start);
+            }
+            return bean;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package io.projectriff.invoker.protocol;
+
+import com.google.protobuf.ByteString;
+import io.projectriff.invoker.rpc.Chunk;
+import io.projectriff.invoker.rpc.InputFrame;
+import io.projectriff.invoker.rpc.InputSignal;
+import io.projectriff.invoker.rpc.OutputFrame;
+import io.projectriff.invoker.rpc.OutputSignal;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.SynchronousSink;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Splits payloads too large to fit in a single frame into chunks, sent as consecutive frames of the same argument (or
+ * result) carrying a {@link Chunk}, and reassembles the chunks of output frames. Only the first chunk of a payload
+ * carries its content type and headers.
+ */
+public final class ChunkCodec {
+
+    private ChunkCodec() {
+    }
+
+    /**
+     * Splits the payload of an input frame into chunks of at most the given size, if larger.
+     */
+    public static List<InputSignal> split(InputFrame frame, int chunkSize) {
+        ByteString payload = frame.getPayload();
+        if (payload.size() <= chunkSize) {
+            return Collections.singletonList(InputSignal.newBuilder().setData(frame).build());
+        }
+        List<InputSignal> chunks = new ArrayList<>(payload.size() / chunkSize + 1);
+        for (int offset = 0, sequence = 0; offset < payload.size(); offset += chunkSize, sequence++) {
+            InputFrame.Builder chunk = sequence == 0 ? frame.toBuilder() : InputFrame.newBuilder().setArgIndex(frame.getArgIndex());
+            chunks.add(InputSignal.newBuilder()
+                    .setData(chunk
+                            .setPayload(payload.substring(offset, Math.min(offset + chunkSize, payload.size())))
+                            .setChunk(chunk(sequence, offset + chunkSize >= payload.size())))
+                    .build());
+        }
+        return chunks;
+    }
+
+    /**
+     * Splits the payload of an output frame into chunks of at most the given size, if larger.
+     */
+    public static List<OutputSignal> split(OutputFrame frame, int chunkSize) {
+        ByteString payload = frame.getPayload();
+        if (payload.size() <= chunkSize) {
+            return Collections.singletonList(OutputSignal.newBuilder().setData(frame).build());
+        }
+        List<OutputSignal> chunks = new ArrayList<>(payload.size() / chunkSize + 1);
+        for (int offset = 0, sequence = 0; offset < payload.size(); offset += chunkSize, sequence++) {
+            OutputFrame.Builder chunk = sequence == 0 ? frame.toBuilder() : OutputFrame.newBuilder().setResultIndex(frame.getResultIndex());
+            chunks.add(OutputSignal.newBuilder()
+                    .setData(chunk
+                            .setPayload(payload.substring(offset, Math.min(offset + chunkSize, payload.size())))
+                            .setChunk(chunk(sequence, offset + chunkSize >= payload.size())))
+                    .build());
+        }
+        return chunks;
+    }
+
+    private static Chunk chunk(int sequence, boolean last) {
+        return Chunk.newBuilder().setSequence(sequence).setLast(last).build();
+    }
+
+    /**
+     * Reassembles the chunks of the output signals of a single result.
+     */
+    public static Flux<OutputSignal> assemble(Flux<OutputSignal> signals) {
+        return Flux.defer(() -> {
+            List<OutputFrame> chunks = new ArrayList<>();
+            return signals.handle((OutputSignal signal, SynchronousSink<OutputSignal> sink) -> {
+                OutputFrame frame = signal.getData();
+                if (!frame.hasChunk()) {
+                    sink.next(signal);
+                    return;
+                }
+                if (frame.getChunk().getSequence() != chunks.size()) {
+                    sink.error(new IllegalStateException("Expected chunk " + chunks.size() + ", got " + frame.getChunk().getSequence()));
+                    return;
+                }
+                chunks.add(frame);
+                if (frame.getChunk().getLast()) {
+                    ByteString payload = ByteString.EMPTY;
+                    for (OutputFrame chunk : chunks) {
+                        payload = payload.concat(chunk.getPayload());
+                    }
+                    sink.next(OutputSignal.newBuilder()
+                            .setData(chunks.get(0).toBuilder().clearChunk().setPayload(payload))
+                            .build());
+                    chunks.clear();
+                }
+            });
+        });
+    }
+}
@@ -0,0 +1,45 @@
+package io.projectriff.invoker.protocol;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+
+/**
+ * The frame headers of the riff invoker protocol that have a meaning to both clients and the invoker.
+ */
+public final class FrameHeaders {
+
+    /**
+     * The header clients may set on input frames, holding the time the frame was sent, in microseconds since the epoch.
+     * The invoker echoes it back on output frames.
+     */
+    public static final String SENT_AT = "riff-sent-at";
+
+    /**
+     * The header set on output frames, holding the server side timings in milliseconds, <i>e.g.</i>
+     * {@code queue;dur=0.012, processing;dur=1.503, total;dur=1.515}.
+     */
+    public static final String SERVER_TIMING = "riff-server-timing";
+
+    /**
+     * The header set on error frames produced when the invoker isolates errors, carrying the name of the gRPC status
+     * code that would otherwise have terminated the invocation.
+     */
+    public static final String ERROR_STATUS = "riff-error-status";
+
+    private FrameHeaders() {
+    }
+
+    /**
+     * Returns the value to set in the {@link #SENT_AT} header of a frame sent now.
+     */
+    public static String sentAtNow() {
+        return String.valueOf(epochMicros());
+    }
+
+    /**
+     * Returns the current time, in microseconds since the epoch.
+     */
+    public static long epochMicros() {
+        return ChronoUnit.MICROS.between(Instant.EPOCH, Instant.now());
+    }
+}
@@ -0,0 +1,184 @@
+package io.projectriff.invoker.server;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * An admission controller limiting the number of concurrent invocations, where the limit adapts to the observed
+ * latency of invocations, in the spirit of TCP Vegas / the gradient algorithm.
+ *
+ * <p>The limiter keeps a long term (exponentially smoothed) view of invocation latency, which is compared to each new
+ * latency sample: while latency stays close to the long term average, the limit grows by a small queue allowance;
+ * when latency degrades (a sign that invocations are queueing), the limit shrinks proportionally. Invocations that
+ * exceed the current limit are expected to be rejected early rather than queue up.</p>
+ *
+ * <p>Latency samples are whole invocation durations, which is a good proxy for request/reply traffic (one short lived
+ * invocation per request). Long lived streaming invocations should be given a high {@link #setMinLimit(int) minimum limit}.</p>
+ */
+public class AdaptiveConcurrencyLimiter implements MeterBinder {
+
+    /**
+     * The number of samples over which the long term latency is averaged.
+     */
+    private static final int LONG_WINDOW = 600;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private final LongAdder rejected = new LongAdder();
+
+    private volatile double limit;
+
+    private int minLimit = 1;
+
+    private int maxLimit = 1000;
+
+    private double smoothing = 0.2;
+
+    private double tolerance = 1.5;
+
+    private volatile double longRttNanos;
+
+    private final LongSupplier nanoClock;
+
+    public AdaptiveConcurrencyLimiter(int initialLimit) {
+        this(initialLimit, System::nanoTime);
+    }
+
+    AdaptiveConcurrencyLimiter(int initialLimit, LongSupplier nanoClock) {
+        this.limit = initialLimit;
+        this.nanoClock = nanoClock;
+    }
+
+    public void setMinLimit(int minLimit) {
+        this.minLimit = minLimit;
+    }
+
+    public void setMaxLimit(int maxLimit) {
+        this.maxLimit = maxLimit;
+    }
+
+    /**
+     * Sets how much of a newly computed limit is applied at once, between 0 (never adapt) and 1 (adapt immediately).
+     */
+    public void setSmoothing(double smoothing) {
+        this.smoothing = smoothing;
+    }
+
+    /**
+     * Sets how much latency may degrade compared to the long term average (as a ratio) before the limit is reduced.
+     */
+    public void setTolerance(double tolerance) {
+        this.tolerance = tolerance;
+    }
+
+    /**
+     * Attempts to admit an invocation, returning a permit that must be released when the invocation terminates,
+     * or null if the invocation should be rejected.
+     */
+    public Permit tryAcquire() {
+        while (true) {
+            int current = inFlight.get();
+            if (current >= (int) limit) {
+                rejected.increment();
+                return null;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return new Permit(nanoClock.getAsLong(), current + 1);
+            }
+        }
+    }
+
+    public int getLimit() {
+        return (int) limit;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * Returns a hint, in milliseconds, about when rejected invocations may be retried: the long term average latency.
+     */
+    public long getRetryAfterMillis() {
+        return Math.max(1L, (long) (longRttNanos / 1_000_000));
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("riff.invoker.concurrency.limit", this, AdaptiveConcurrencyLimiter::getLimit)
+                .description("The current adaptive limit of concurrent invocations")
+                .register(registry);
+        Gauge.builder("riff.invoker.concurrency.in-flight", this, AdaptiveConcurrencyLimiter::getInFlight)
+                .description("The number of invocations currently in flight")
+                .register(registry);
+        FunctionCounter.builder("riff.invoker.concurrency.rejected", rejected, LongAdder::doubleValue)
+                .description("The number of invocations rejected for exceeding the limit")
+                .register(registry);
+    }
+
+    private synchronized void onSample(long rttNanos, int inFlightAtStart) {
+        if (longRttNanos == 0) {
+            longRttNanos = rttNanos;
+        } else {
+            longRttNanos = longRttNanos + (rttNanos - longRttNanos) / LONG_WINDOW;
+        }
+        // Only grow the limit if it's actually being used, to avoid growing it unboundedly when traffic is low
+        if (inFlightAtStart < limit / 2) {
+            return;
+        }
+        double gradient = Math.max(0.5, Math.min(1.0, tolerance * longRttNanos / rttNanos));
+        double queueSize = Math.sqrt(limit);
+        double newLimit = limit * gradient + queueSize;
+        newLimit = limit * (1 - smoothing) + newLimit * smoothing;
+        limit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+    }
+
+    private synchronized void onDropped() {
+        limit = Math.max(minLimit, limit * 0.9);
+    }
+
+    /**
+     * Represents an admitted invocation.
+     */
+    public class Permit {
+
+        private final long start;
+
+        private final int inFlightAtStart;
+
+        private Permit(long start, int inFlightAtStart) {
+            this.start = start;
+            this.inFlightAtStart = inFlightAtStart;
+        }
+
+        /**
+         * Releases this permit, using the invocation duration as a latency sample.
+         */
+        public void release() {
+            inFlight.decrementAndGet();
+            onSample(nanoClock.getAsLong() - start, inFlightAtStart);
+        }
+
+        /**
+         * Releases this permit for an invocation that failed because of overload (eg its deadline expired),
+         * reducing the limit.
+         */
+        public void releaseDropped() {
+            inFlight.decrementAndGet();
+            onDropped();
+        }
+
+        /**
+         * Releases this permit without taking the invocation into account, eg because it failed early.
+         */
+        public void releaseIgnored() {
+            inFlight.decrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package io.projectriff.invoker.server;
+
+import io.grpc.Status;
+import io.grpc.StatusException;
+import io.grpc.StatusRuntimeException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Logs invocation errors, making sure that a storm of errors doesn't turn into a storm of log writes.
+ *
+ * <p>Errors are rate limited per type: the first {@link #setBurst(int) few} errors of a given type in each
+ * {@link #setPeriod(Duration) period} are logged with their stack trace. Past that, errors of that type are only sampled:
+ * one in every {@link #setSampleRate(int) sample rate} is logged, without stack trace, along with how many similar errors
+ * were suppressed.</p>
+ *
+ * <p>The function name and error type are set in the logging {@link MDC}, so that they end up as fields of structured logs.</p>
+ *
+ * <p>gRPC status errors are accounted for by their cause, if any, and invocations cancelled by the caller aren't
+ * reported at all, as they aren't failures of the function.</p>
+ */
+public class ErrorReporter {
+
+    private static final Logger logger = LoggerFactory.getLogger(ErrorReporter.class);
+
+    private final ConcurrentMap<Class<?>, Window> windows = new ConcurrentHashMap<>();
+
+    private final LongSupplier nanoClock;
+
+    private int burst = 5;
+
+    private long periodNanos = Duration.ofSeconds(10).toNanos();
+
+    private int sampleRate = 100;
+
+    public ErrorReporter() {
+        this(System::nanoTime);
+    }
+
+    ErrorReporter(LongSupplier nanoClock) {
+        this.nanoClock = nanoClock;
+    }
+
+    /**
+     * Sets how many errors of a given type are fully logged in each period.
+     */
+    public void setBurst(int burst) {
+        this.burst = burst;
+    }
+
+    public void setPeriod(Duration period) {
+        this.periodNanos = period.toNanos();
+    }
+
+    /**
+     * Sets the ratio of errors logged past the burst of each period, <i>e.g.</i> 100 to log one error in a hundred.
+     */
+    public void setSampleRate(int sampleRate) {
+        this.sampleRate = sampleRate;
+    }
+
+    /**
+     * Reports an error that occurred while invoking the given function.
+     */
+    public void report(String functionName, Throwable error) {
+        Status status = error instanceof StatusException ? ((StatusException) error).getStatus()
+                : error instanceof StatusRuntimeException ? ((StatusRuntimeException) error).getStatus()
+                : null;
+        if (status != null && status.getCode() == Status.Code.CANCELLED) {
+            return;
+        }
+        if (status != null && error.getCause() != null) {
+            error = error.getCause();
+        }
+        long now = nanoClock.getAsLong();
+        Window window = windows.computeIfAbsent(error.getClass(), type -> new Window(now));
+        long count = window.next(now, periodNanos);
+        if (count > burst && (count - burst) % sampleRate != 0) {
+            window.suppressed.incrementAndGet();
+            return;
+        }
+        long suppressed = window.suppressed.getAndSet(0L);
+        try (MDC.MDCCloseable f = MDC.putCloseable("riff.function", functionName);
+             MDC.MDCCloseable t = MDC.putCloseable("riff.error.type", error.getClass().getName())) {
+            if (count <= burst && suppressed == 0L) {
+                logger.error("Invocation of function '{}' failed", functionName, error);
+            } else if (count <= burst) {
+                logger.error("Invocation of function '{}' failed ({} similar error(s) suppressed)", functionName, suppressed, error);
+            } else {
+                logger.error("Invocation of function '{}' failed: {} ({} similar error(s) suppressed)", functionName, error, suppressed);
+            }
+        }
+    }
+
+    /**
+     * Returns how many errors have been suppressed since the last one that was logged, for each error type.
+     */
+    long getSuppressed(Class<? extends Throwable> type) {
+        Window window = windows.get(type);
+        return window == null ? 0L : window.suppressed.get();
+    }
+
+    private static class Window {
+
+        private volatile long start;
+
+        private final AtomicLong count = new AtomicLong();
+
+        private final AtomicLong suppressed = new AtomicLong();
+
+        private Window(long start) {
+            this.start = start;
+        }
+
+        /**
+         * Returns the rank of a new error in the current window, starting a new window if the current one is over.
+         */
+        private long next(long now, long periodNanos) {
+            if (now - start >= periodNanos) {
+                synchronized (this) {
+                    if (now - start >= periodNanos) {
+                        start = now;
+                        count.set(0L);
+                    }
+                }
+            }
+            return count.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package io.projectriff.invoker.server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Shares worker threads fairly between concurrent invocations, so that a hot invocation with a fast producer can't
+ * starve the others.
+ *
+ * <p>Each invocation gets its own queue of frames, processed in order, one frame at a time, and the workers serve the
+ * queues of active invocations by deficit round robin: in each round, a queue is credited a quantum of processing time
+ * proportional to the weight of its invocation, and processes frames until that credit is spent (the processing of a
+ * frame covering its conversion, the function and the encoding of the results that it triggers synchronously). Frames
+ * overrunning the credit put their queue in debt, to be paid back in the next rounds. Idle queues leave the round and
+ * lose their credit, so that an invocation sending a frame now and then waits at most for a round of the busy ones.</p>
+ */
+public class FairScheduler {
+
+    private static final Logger logger = LoggerFactory.getLogger(FairScheduler.class);
+
+    /**
+     * The maximum priority an invocation may get, so that no invocation gets unbounded quanta.
+     */
+    private static final int MAX_PRIORITY = 99;
+
+    private final long quantumNanos;
+
+    private final Queue<Lane> active = new ArrayDeque<>();
+
+    /**
+     * @param threads the number of worker threads
+     * @param quantum the processing time credited to invocations of priority 0 in each round
+     */
+    public FairScheduler(int threads, Duration quantum) {
+        this.quantumNanos = quantum.toNanos();
+        for (int i = 0; i < threads; i++) {
+            Thread worker = new Thread(this::work, "riff-fair-" + i);
+            worker.setDaemon(true);
+            worker.start();
+        }
+    }
+
+    /**
+     * Schedules the processing of the given frames, of an invocation with the given priority. Invocations with priority
+     * {@code n} get {@code n + 1} times the share of invocations with priority 0.
+     */
+    <T> Flux<T> schedule(Flux<T> frames, int priority) {
+        return Flux.defer(() -> {
+            Lane lane = new Lane(1 + Math.max(0, Math.min(priority, MAX_PRIORITY)));
+            return frames.concatMap(frame -> Mono.<T>create(sink -> lane.submit(() -> sink.success(frame))), 1);
+        });
+    }
+
+    private void work() {
+        while (true) {
+            Lane lane;
+            synchronized (active) {
+                while (active.isEmpty()) {
+                    try {
+                        active.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                lane = active.poll();
+            }
+            lane.serve();
+        }
+    }
+
+    private void activate(Lane lane) {
+        synchronized (active) {
+            active.add(lane);
+            active.notify();
+        }
+    }
+
+    /**
+     * The queue of frames of an invocation, served by at most one worker at a time.
+     */
+    private class Lane {
+
+        private final int weight;
+
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        private long deficit;
+
+        private Lane(int weight) {
+            this.weight = weight;
+        }
+
+        void submit(Runnable task) {
+            tasks.add(task);
+            if (scheduled.compareAndSet(false, true)) {
+                activate(this);
+            }
+        }
+
+        /**
+         * Runs tasks until the credit of this round is spent, then goes back in the round, or leaves it if idle.
+         */
+        void serve() {
+            deficit += quantumNanos * weight;
+            Runnable task;
+            while (deficit > 0 && (task = tasks.poll()) != null) {
+                long start = System.nanoTime();
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    logger.warn("Frame processing failed", e);
+                }
+                deficit -= System.nanoTime() - start;
+            }
+            if (!tasks.isEmpty()) {
+                activate(this);
+                return;
+            }
+            // an idle lane doesn't keep its credit, but keeps its debt if its last frames overran it
+            deficit = Math.min(deficit, 0);
+            scheduled.set(false);
+            // a task may have been submitted before the lane was marked idle
+            if (!tasks.isEmpty() && scheduled.compareAndSet(false, true)) {
+                activate(this);
+            }
+        }
+    }
+}
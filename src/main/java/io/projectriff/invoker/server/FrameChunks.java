@@ -0,0 +1,267 @@
+package io.projectriff.invoker.server;
+
+import io.grpc.Status;
+import io.projectriff.invoker.protocol.ChunkCodec;
+import org.springframework.cloud.function.context.catalog.FunctionTypeUtils;
+import org.springframework.core.ResolvableType;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.SynchronousSink;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * Reassembles the chunks of input payloads, as split by {@link ChunkCodec}, on the invoker side.
+ *
+ * <p>The chunks of an input payload are reassembled into a single message, up to a maximum payload size. For function
+ * arguments of type {@link InputStream} though, chunks are streamed to the function as they arrive, so that payloads of
+ * any size can be processed without ever being held in memory: the function reads them from an input stream, and is
+ * applied on the {@link Schedulers#boundedElastic() bounded elastic} scheduler, as reading blocks. Every stage between
+ * the gRPC stream and that input stream (demultiplexing arguments, splitting payloads) only requests
+ * {@link #PREFETCH a few} chunks ahead, so that only a few chunks per streaming argument are buffered at any time.</p>
+ */
+public final class FrameChunks {
+
+    /**
+     * The (internal) message header holding the sequence number of a chunk.
+     */
+    static final String SEQUENCE_HEADER = "riff-chunk-sequence";
+
+    /**
+     * The (internal) message header telling whether a chunk is the last one of its payload.
+     */
+    static final String LAST_HEADER = "riff-chunk-last";
+
+    /**
+     * How many chunks each stage streaming chunks to an input stream requests ahead of the function reading it.
+     */
+    static final int PREFETCH = 4;
+
+    private FrameChunks() {
+    }
+
+    /**
+     * Returns, for each argument of the function, whether it accepts input streams.
+     */
+    static boolean[] streamingArguments(Function<Object, Object> function, int arity) {
+        boolean[] streaming = new boolean[arity];
+        if (function instanceof FunctionPipeline) {
+            return streaming;
+        }
+        Type functionType = FunctionTypeUtils.discoverFunctionTypeFromFunctionalObject(function);
+        if (FunctionTypes.acceptsInputArray(functionType)) {
+            return streaming;
+        }
+        for (int i = 0; i < arity; i++) {
+            Type inputType = FunctionTypeUtils.getInputType(functionType, i);
+            if (FunctionTypeUtils.isPublisher(inputType)) {
+                inputType = FunctionTypeUtils.getImmediateGenericType(inputType, 0);
+            }
+            Class<?> inputClass = inputType == null ? null : ResolvableType.forType(inputType).resolve();
+            streaming[i] = inputClass != null && InputStream.class.isAssignableFrom(inputClass);
+        }
+        return streaming;
+    }
+
+    /**
+     * Reassembles the chunks of the messages of an argument, or streams them if the argument is an input stream.
+     */
+    static Flux<?> assemble(Flux<Message<byte[]>> messages, boolean streaming, long maxPayloadSize) {
+        if (streaming) {
+            return messages
+                    .windowUntil(FrameChunks::endsPayload, false, PREFETCH)
+                    .map(chunks -> new ChunkInputStream(chunks.handle(new Payloads())))
+                    .publishOn(Schedulers.boundedElastic(), 1);
+        }
+        return Flux.defer(() -> messages.handle(new Assembly(maxPayloadSize)));
+    }
+
+    private static boolean endsPayload(Message<byte[]> message) {
+        return !message.getHeaders().containsKey(SEQUENCE_HEADER) || message.getHeaders().get(LAST_HEADER, Boolean.class);
+    }
+
+    /**
+     * Checks that the chunks of a payload come in sequence before handling them.
+     */
+    private abstract static class Sequence<T> implements BiConsumer<Message<byte[]>, SynchronousSink<T>> {
+
+        private int expected;
+
+        @Override
+        public void accept(Message<byte[]> message, SynchronousSink<T> sink) {
+            Integer sequence = message.getHeaders().get(SEQUENCE_HEADER, Integer.class);
+            if (sequence == null) {
+                next(message, sink);
+                return;
+            }
+            if (sequence != expected) {
+                sink.error(Status.INVALID_ARGUMENT.withDescription("Expected chunk " + expected + ", got " + sequence).asException());
+                return;
+            }
+            boolean last = message.getHeaders().get(LAST_HEADER, Boolean.class);
+            expected = last ? 0 : expected + 1;
+            chunk(message, last, sink);
+        }
+
+        /**
+         * Handles a message that is not chunked.
+         */
+        abstract void next(Message<byte[]> message, SynchronousSink<T> sink);
+
+        /**
+         * Handles a chunk of a payload.
+         */
+        abstract void chunk(Message<byte[]> chunk, boolean last, SynchronousSink<T> sink);
+    }
+
+    /**
+     * Emits the payloads of the chunks of a payload.
+     */
+    private static class Payloads extends Sequence<byte[]> {
+
+        @Override
+        void next(Message<byte[]> message, SynchronousSink<byte[]> sink) {
+            sink.next(message.getPayload());
+        }
+
+        @Override
+        void chunk(Message<byte[]> chunk, boolean last, SynchronousSink<byte[]> sink) {
+            sink.next(chunk.getPayload());
+        }
+    }
+
+    /**
+     * Reassembles chunked payloads into single messages.
+     */
+    private static class Assembly extends Sequence<Message<byte[]>> {
+
+        private final long maxPayloadSize;
+
+        private final List<Message<byte[]>> chunks = new ArrayList<>();
+
+        private long size;
+
+        private Assembly(long maxPayloadSize) {
+            this.maxPayloadSize = maxPayloadSize;
+        }
+
+        @Override
+        void next(Message<byte[]> message, SynchronousSink<Message<byte[]>> sink) {
+            sink.next(message);
+        }
+
+        @Override
+        void chunk(Message<byte[]> chunk, boolean last, SynchronousSink<Message<byte[]>> sink) {
+            size += chunk.getPayload().length;
+            if (size > maxPayloadSize) {
+                sink.error(Status.RESOURCE_EXHAUSTED
+                        .withDescription("Payload exceeds the maximum size of " + maxPayloadSize + " bytes")
+                        .asException());
+                return;
+            }
+            chunks.add(chunk);
+            if (!last) {
+                return;
+            }
+            byte[] payload = new byte[(int) size];
+            int offset = 0;
+            for (Message<byte[]> part : chunks) {
+                System.arraycopy(part.getPayload(), 0, payload, offset, part.getPayload().length);
+                offset += part.getPayload().length;
+            }
+            sink.next(MessageBuilder.withPayload(payload)
+                    .copyHeaders(chunks.get(0).getHeaders())
+                    .removeHeaders(SEQUENCE_HEADER, LAST_HEADER)
+                    .build());
+            chunks.clear();
+            size = 0;
+        }
+    }
+
+    /**
+     * An input stream reading the chunks of a payload as they arrive, requesting at most {@link #PREFETCH} of them ahead.
+     */
+    private static class ChunkInputStream extends InputStream {
+
+        private final Flux<byte[]> chunks;
+
+        private Stream<byte[]> stream;
+
+        private Iterator<byte[]> iterator;
+
+        private byte[] current = new byte[0];
+
+        private int position;
+
+        private ChunkInputStream(Flux<byte[]> chunks) {
+            this.chunks = chunks;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!fill()) {
+                return -1;
+            }
+            return current[position++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!fill()) {
+                return -1;
+            }
+            int n = Math.min(len, current.length - position);
+            System.arraycopy(current, position, b, off, n);
+            position += n;
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return current.length - position;
+        }
+
+        @Override
+        public void close() {
+            if (stream == null) {
+                stream = chunks.toStream(PREFETCH);
+            }
+            stream.close();
+        }
+
+        /**
+         * Blocks until at least one byte can be read, returning false at the end of the payload.
+         */
+        private boolean fill() throws IOException {
+            try {
+                if (iterator == null) {
+                    stream = chunks.toStream(PREFETCH);
+                    iterator = stream.iterator();
+                }
+                while (current.length == position) {
+                    if (!iterator.hasNext()) {
+                        return false;
+                    }
+                    current = iterator.next();
+                    position = 0;
+                }
+                return true;
+            } catch (RuntimeException e) {
+                throw new IOException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,379 @@
+package io.projectriff.invoker.server;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.messaging.Message;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import java.util.function.Predicate;
+
+/**
+ * Recognizes frames redelivered by at-least-once upstreams, by their idempotency key header, so that they are not
+ * processed again: duplicates of frames seen within a time window are dropped, or, when replaying, answered with the
+ * result of the original frame.
+ *
+ * <p>Keys are remembered as 64-bit hashes (of the function name and key) in a ring of hash sets, each covering a
+ * fraction of the window. The oldest set is cleared as time passes, so that memory stays bounded by the number of keys
+ * seen within the window, at about 16 bytes per key. Once the maximum number of keys is reached, the oldest set is
+ * cleared early, shortening the window.</p>
+ *
+ * <p>Keys of frames whose processing fails or is cancelled are forgotten, so that their redelivery is processed
+ * again.</p>
+ *
+ * <p>Results can only be replayed for functions of single values (as for {@link ResultCache}), and are held for as long
+ * as the window, within a maximum total size. Duplicates whose result isn't held (anymore) are dropped.</p>
+ */
+public class FrameDeduplicator implements MeterBinder {
+
+    private static final int BUCKETS = 8;
+
+    /**
+     * The maximum number of keys tracked per invocation until the result of their frame is produced.
+     */
+    static final int MAX_PENDING_KEYS = 1024;
+
+    private final String keyHeader;
+
+    private final long bucketNanos;
+
+    private final int maxKeysPerBucket;
+
+    private final LongSupplier clock;
+
+    private final LongHashSet[] buckets = new LongHashSet[BUCKETS];
+
+    private int current;
+
+    private long currentStart;
+
+    private Cache<Long, ResultCache.Result> results;
+
+    private final LongAdder dropped = new LongAdder();
+
+    private final LongAdder replayed = new LongAdder();
+
+    /**
+     * @param keyHeader the header carrying the idempotency key of frames
+     * @param window    how long keys are remembered
+     * @param maxKeys   the maximum number of keys remembered
+     */
+    public FrameDeduplicator(String keyHeader, Duration window, int maxKeys) {
+        this(keyHeader, window, maxKeys, System::nanoTime);
+    }
+
+    FrameDeduplicator(String keyHeader, Duration window, int maxKeys, LongSupplier clock) {
+        this.keyHeader = keyHeader;
+        this.bucketNanos = Math.max(1L, window.toNanos() / BUCKETS);
+        this.maxKeysPerBucket = Math.max(1, maxKeys / BUCKETS);
+        this.clock = clock;
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = new LongHashSet();
+        }
+        this.currentStart = clock.getAsLong();
+    }
+
+    /**
+     * Replays the results of duplicate frames, holding up to the given total size of results, in bytes.
+     */
+    public void setReplay(long maxReplaySize) {
+        this.results = Caffeine.newBuilder()
+                .maximumWeight(maxReplaySize)
+                .weigher((Long key, ResultCache.Result result) -> result.payload.length)
+                .expireAfterWrite(Duration.ofNanos(bucketNanos * BUCKETS))
+                .build();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("riff.invoker.dedup.duplicates", dropped, LongAdder::doubleValue)
+                .tag("outcome", "dropped")
+                .description("The number of duplicate frames recognized by their idempotency key")
+                .register(registry);
+        FunctionCounter.builder("riff.invoker.dedup.duplicates", replayed, LongAdder::doubleValue)
+                .tag("outcome", "replayed")
+                .description("The number of duplicate frames recognized by their idempotency key")
+                .register(registry);
+    }
+
+    /**
+     * Returns whether the results of duplicate frames are replayed, for functions of single values.
+     */
+    boolean isReplaying() {
+        return results != null;
+    }
+
+    /**
+     * Returns a filter accepting the messages of the given function whose key hasn't been seen within the window, for a
+     * single invocation.
+     */
+    KeyFilter filter(String functionName) {
+        return new KeyFilter(functionName);
+    }
+
+    /**
+     * Wraps the given function (applied to a flux of messages) to answer duplicate inputs with the result of their
+     * original input.
+     */
+    Function<Object, Object> replaying(Function<Object, Object> function, String functionName) {
+        return inputs -> ((Flux<Message<byte[]>>) inputs).concatMap(input -> {
+            Object key = input.getHeaders().get(keyHeader);
+            if (key == null) {
+                return (Flux<Message<byte[]>>) function.apply(Flux.just(input));
+            }
+            long hash = hash(functionName, key.toString());
+            if (firstSeen(hash)) {
+                return ((Flux<Message<byte[]>>) function.apply(Flux.just(input)))
+                        .doOnNext(output -> results.put(hash, new ResultCache.Result(output)))
+                        .doOnError(e -> forget(hash))
+                        .doOnCancel(() -> {
+                            if (results.getIfPresent(hash) == null) {
+                                forget(hash);
+                            }
+                        });
+            }
+            ResultCache.Result result = results.getIfPresent(hash);
+            if (result == null) {
+                dropped.increment();
+                return Mono.empty();
+            }
+            replayed.increment();
+            return Mono.just(result.toMessage(input));
+        }, 1);
+    }
+
+    /**
+     * Forgets the key of the given message of the given function, whose processing failed.
+     */
+    void forget(String functionName, Message<?> message) {
+        Object key = message.getHeaders().get(keyHeader);
+        if (key != null) {
+            forget(hash(functionName, key.toString()));
+        }
+    }
+
+    /**
+     * Records the given key hash, returning false if it was already seen within the window.
+     */
+    synchronized boolean firstSeen(long hash) {
+        rotate();
+        for (LongHashSet bucket : buckets) {
+            if (bucket.contains(hash)) {
+                return false;
+            }
+        }
+        if (buckets[current].size() >= maxKeysPerBucket) {
+            advance();
+        }
+        buckets[current].add(hash);
+        return true;
+    }
+
+    /**
+     * Forgets the given key hash, so that it is seen for the first time again.
+     */
+    synchronized void forget(long hash) {
+        for (LongHashSet bucket : buckets) {
+            bucket.remove(hash);
+        }
+    }
+
+    /**
+     * Clears the sets which have fallen out of the window.
+     */
+    private void rotate() {
+        long now = clock.getAsLong();
+        long elapsed = now - currentStart;
+        if (elapsed < bucketNanos) {
+            return;
+        }
+        long steps = elapsed / bucketNanos;
+        for (long i = 0; i < Math.min(steps, BUCKETS); i++) {
+            advance();
+        }
+        currentStart = now - elapsed % bucketNanos;
+    }
+
+    private void advance() {
+        current = (current + 1) % BUCKETS;
+        buckets[current].clear();
+    }
+
+    private static long hash(String functionName, String key) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < functionName.length(); i++) {
+            h = (h ^ functionName.charAt(i)) * 0x100000001b3L;
+        }
+        // separate the function name from the key
+        h *= 0x100000001b3L;
+        for (int i = 0; i < key.length(); i++) {
+            h = (h ^ key.charAt(i)) * 0x100000001b3L;
+        }
+        // finalizer of MurmurHash3, to spread FNV-1a bits over the whole word
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * Accepts the messages of an invocation whose key hasn't been seen within the window, tracking the keys of frames
+     * whose result hasn't been produced yet so that only those are forgotten if the invocation fails or is cancelled.
+     *
+     * <p>Results are matched to keys in order, one result per frame, which is exact for functions of single values.
+     * At most {@link #MAX_PENDING_KEYS} keys are tracked, the oldest being considered processed past that, so that
+     * functions producing fewer results than they get frames don't hold keys for the whole life of a stream.</p>
+     */
+    final class KeyFilter implements Predicate<Message<byte[]>> {
+
+        private final String functionName;
+
+        private final Deque<Long> pending = new ArrayDeque<>();
+
+        private KeyFilter(String functionName) {
+            this.functionName = functionName;
+        }
+
+        @Override
+        public boolean test(Message<byte[]> message) {
+            Object key = message.getHeaders().get(keyHeader);
+            if (key == null) {
+                return true;
+            }
+            long hash = hash(functionName, key.toString());
+            if (firstSeen(hash)) {
+                track(hash);
+                return true;
+            }
+            dropped.increment();
+            return false;
+        }
+
+        /**
+         * Marks the oldest frame still pending as processed, as its result has been produced.
+         */
+        synchronized void processed() {
+            pending.pollFirst();
+        }
+
+        /**
+         * Forgets the keys of the frames whose result hasn't been produced.
+         */
+        synchronized void forgetPending() {
+            for (Long hash : pending) {
+                forget(hash);
+            }
+            pending.clear();
+        }
+
+        private synchronized void track(long hash) {
+            if (pending.size() == MAX_PENDING_KEYS) {
+                pending.pollFirst();
+            }
+            pending.addLast(hash);
+        }
+    }
+
+    /**
+     * An open addressing set of longs, with linear probing. Zero marks empty slots, and is stored as one.
+     */
+    private static final class LongHashSet {
+
+        private static final int INITIAL_CAPACITY = 1024;
+
+        private long[] table = new long[INITIAL_CAPACITY];
+
+        private int size;
+
+        boolean contains(long value) {
+            long v = value == 0 ? 1 : value;
+            int mask = table.length - 1;
+            for (int i = (int) v & mask; ; i = (i + 1) & mask) {
+                if (table[i] == v) {
+                    return true;
+                }
+                if (table[i] == 0) {
+                    return false;
+                }
+            }
+        }
+
+        void add(long value) {
+            long v = value == 0 ? 1 : value;
+            if (2 * (size + 1) > table.length) {
+                grow();
+            }
+            if (insert(table, v)) {
+                size++;
+            }
+        }
+
+        void remove(long value) {
+            long v = value == 0 ? 1 : value;
+            int mask = table.length - 1;
+            int i = (int) v & mask;
+            while (table[i] != v) {
+                if (table[i] == 0) {
+                    return;
+                }
+                i = (i + 1) & mask;
+            }
+            // shift back the values following the removed one in its run, so that probing still finds them
+            for (int j = (i + 1) & mask; table[j] != 0; j = (j + 1) & mask) {
+                int home = (int) table[j] & mask;
+                if (((j - home) & mask) >= ((j - i) & mask)) {
+                    table[i] = table[j];
+                    i = j;
+                }
+            }
+            table[i] = 0;
+            size--;
+        }
+
+        int size() {
+            return size;
+        }
+
+        void clear() {
+            if (size > 0) {
+                Arrays.fill(table, 0L);
+                size = 0;
+            }
+        }
+
+        private void grow() {
+            long[] grown = new long[table.length * 2];
+            for (long v : table) {
+                if (v != 0) {
+                    insert(grown, v);
+                }
+            }
+            table = grown;
+        }
+
+        private static boolean insert(long[] table, long v) {
+            int mask = table.length - 1;
+            for (int i = (int) v & mask; ; i = (i + 1) & mask) {
+                if (table[i] == v) {
+                    return false;
+                }
+                if (table[i] == 0) {
+                    table[i] = v;
+                    return true;
+                }
+            }
+        }
+    }
+}
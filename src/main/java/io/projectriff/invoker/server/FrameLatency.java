@@ -0,0 +1,160 @@
+package io.projectriff.invoker.server;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.projectriff.invoker.protocol.FrameHeaders;
+import io.projectriff.invoker.rpc.OutputFrame;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
+
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records the latency of frames into timers (whose percentiles are computed with HdrHistogram), tagged by function and
+ * argument or result index:
+ * <ul>
+ *     <li>{@code riff.invoker.latency.network}: from the {@link FrameHeaders#SENT_AT send timestamp} set by the client
+ *     to the arrival of an input frame. Only recorded for frames carrying that header, and only meaningful as long as
+ *     client and server clocks are synchronized,</li>
+ *     <li>{@code riff.invoker.latency.queue}: from the arrival of an input frame to its dispatch to the function,</li>
+ *     <li>{@code riff.invoker.latency.processing}: from the dispatch of the latest input frame to the production of
+ *     an output frame,</li>
+ *     <li>{@code riff.invoker.latency.total}: from the arrival of the latest input frame to the production of an output frame.</li>
+ * </ul>
+ * Output frames are attributed to the latest input frame dispatched in the same invocation, which is exact for
+ * request-reply functions and an approximation for streaming functions.
+ *
+ * <p>The server side timings are echoed back on each output frame, in a {@link FrameHeaders#SERVER_TIMING} header using the
+ * syntax of the HTTP {@code Server-Timing} header, along with the send timestamp of the input frame, if any.</p>
+ */
+public class FrameLatency {
+
+    /**
+     * The (internal) message header holding the arrival time of an input frame, as given by {@link System#nanoTime()}.
+     * It is removed before the message is dispatched to the function.
+     */
+    static final String ARRIVED_AT_HEADER = "riff-arrived-at";
+
+    private final MeterRegistry registry;
+
+    private final ConcurrentMap<String, Timers> timers = new ConcurrentHashMap<>();
+
+    FrameLatency(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * Returns a tracker for the frames of a new invocation of the given function.
+     */
+    Invocation newInvocation(String functionName) {
+        return new Invocation(timers.computeIfAbsent(String.valueOf(functionName), Timers::new));
+    }
+
+    /**
+     * Tracks the latest input frame dispatched in an invocation.
+     */
+    class Invocation {
+
+        private final Timers timers;
+
+        private volatile long arrivedAt;
+
+        private volatile long dispatchedAt;
+
+        private volatile String sentAt;
+
+        private Invocation(Timers timers) {
+            this.timers = timers;
+        }
+
+        /**
+         * Records the dispatch of an input message to the function, returning that message without the internal
+         * arrival header.
+         */
+        Message<byte[]> dispatched(int argIndex, Message<byte[]> message) {
+            long now = System.nanoTime();
+            Long arrival = message.getHeaders().get(ARRIVED_AT_HEADER, Long.class);
+            long arrived = arrival == null ? now : arrival;
+            timers.timer(timers.queue, "riff.invoker.latency.queue", "arg_index", argIndex)
+                    .record(now - arrived, TimeUnit.NANOSECONDS);
+            String sent = message.getHeaders().get(FrameHeaders.SENT_AT, String.class);
+            if (sent != null) {
+                recordNetwork(argIndex, sent, now - arrived);
+            }
+            this.sentAt = sent;
+            this.arrivedAt = arrived;
+            this.dispatchedAt = now;
+            return arrival == null ? message : MessageBuilder.fromMessage(message).removeHeader(ARRIVED_AT_HEADER).build();
+        }
+
+        /**
+         * Records the production of an output frame, and echoes timings on it.
+         */
+        void produced(int resultIndex, OutputFrame.Builder frame) {
+            long dispatched = dispatchedAt;
+            if (dispatched == 0L) {
+                // results produced before any input was dispatched (eg by a supplier)
+                return;
+            }
+            long now = System.nanoTime();
+            long arrived = arrivedAt;
+            timers.timer(timers.processing, "riff.invoker.latency.processing", "result_index", resultIndex)
+                    .record(now - dispatched, TimeUnit.NANOSECONDS);
+            timers.timer(timers.total, "riff.invoker.latency.total", "result_index", resultIndex)
+                    .record(now - arrived, TimeUnit.NANOSECONDS);
+            frame.putHeaders(FrameHeaders.SERVER_TIMING, String.format(Locale.ROOT, "queue;dur=%.3f, processing;dur=%.3f, total;dur=%.3f",
+                    millis(dispatched - arrived), millis(now - dispatched), millis(now - arrived)));
+            String sent = sentAt;
+            if (sent != null) {
+                frame.putHeaders(FrameHeaders.SENT_AT, sent);
+            }
+        }
+
+        private void recordNetwork(int argIndex, String sent, long queuedNanos) {
+            try {
+                long delay = FrameHeaders.epochMicros() - TimeUnit.NANOSECONDS.toMicros(queuedNanos) - Long.parseLong(sent);
+                if (delay >= 0L) {
+                    timers.timer(timers.network, "riff.invoker.latency.network", "arg_index", argIndex)
+                            .record(delay, TimeUnit.MICROSECONDS);
+                }
+            } catch (NumberFormatException e) {
+                // not a timestamp we understand, ignore
+            }
+        }
+
+        private double millis(long nanos) {
+            return nanos / 1_000_000.0;
+        }
+    }
+
+    /**
+     * The timers of a function, by argument or result index.
+     */
+    private class Timers {
+
+        private final String functionName;
+
+        private final ConcurrentMap<Integer, Timer> network = new ConcurrentHashMap<>();
+
+        private final ConcurrentMap<Integer, Timer> queue = new ConcurrentHashMap<>();
+
+        private final ConcurrentMap<Integer, Timer> processing = new ConcurrentHashMap<>();
+
+        private final ConcurrentMap<Integer, Timer> total = new ConcurrentHashMap<>();
+
+        private Timers(String functionName) {
+            this.functionName = functionName;
+        }
+
+        private Timer timer(ConcurrentMap<Integer, Timer> timers, String name, String indexTag, int index) {
+            return timers.computeIfAbsent(index, i -> Timer.builder(name)
+                    .tag("function", functionName)
+                    .tag(indexTag, String.valueOf(i))
+                    .publishPercentiles(0.5, 0.9, 0.99, 0.999)
+                    .register(registry));
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package io.projectriff.invoker.server;
+
+import io.opentelemetry.api.OpenTelemetry;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.SpanKind;
+import io.opentelemetry.api.trace.StatusCode;
+import io.opentelemetry.api.trace.Tracer;
+import io.opentelemetry.api.trace.propagation.W3CTraceContextPropagator;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.context.propagation.TextMapGetter;
+import io.opentelemetry.context.propagation.TextMapPropagator;
+import io.opentelemetry.context.propagation.TextMapSetter;
+import io.projectriff.invoker.rpc.InputFrame;
+import io.projectriff.invoker.rpc.OutputFrame;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.support.MessageBuilder;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+
+/**
+ * Traces the processing of individual frames with OpenTelemetry, propagating W3C trace context from input frames to
+ * the output frames they produce.
+ *
+ * <p>A span is started for each input frame when it is decoded, as a child of the {@code traceparent} header of that
+ * frame if any, and carried in the {@link #SPAN_HEADER} header of its message. The header is taken off the message
+ * before it reaches the function, and the span is attached to the next result the function produces, whatever the
+ * thread, so that it covers decoding the frame, applying the function and encoding the result, when the output frame
+ * carrying its trace context is encoded. Results are matched to input frames in order, one result per frame, which is
+ * exact for functions of single values. Spans of frames without a result end with the invocation.</p>
+ *
+ * <p>Whether spans are recorded is decided upfront by the sampler of the configured OpenTelemetry SDK, if any.
+ * Unsampled spans are not recording, and attributes are only computed for recording spans.</p>
+ */
+class FrameTracing {
+
+    /**
+     * The header carrying the span of an input frame, from its decoding to its dispatch to the function, and from the
+     * result of the function to its encoding.
+     */
+    static final String SPAN_HEADER = "riff-span";
+
+    /**
+     * The maximum number of spans awaiting a result, per invocation (or lane), past which the oldest ones are ended.
+     */
+    static final int MAX_PENDING_SPANS = 1024;
+
+    private static final TextMapGetter<Map<String, String>> HEADERS_GETTER = new TextMapGetter<>() {
+        @Override
+        public Iterable<String> keys(Map<String, String> headers) {
+            return headers.keySet();
+        }
+
+        @Override
+        public String get(Map<String, String> headers, String key) {
+            return headers == null ? null : headers.get(key);
+        }
+    };
+
+    private static final TextMapSetter<OutputFrame.Builder> HEADERS_SETTER = OutputFrame.Builder::putHeaders;
+
+    private final TextMapPropagator propagator = W3CTraceContextPropagator.getInstance();
+
+    private final Tracer tracer;
+
+    FrameTracing(OpenTelemetry openTelemetry) {
+        this.tracer = openTelemetry.getTracer("io.projectriff.invoker");
+    }
+
+    /**
+     * Starts the span of an input frame of the given function.
+     */
+    Span start(InputFrame frame, String functionName) {
+        Context parent = propagator.extract(Context.root(), frame.getHeadersMap(), HEADERS_GETTER);
+        Span span = tracer.spanBuilder("riff invoke " + functionName)
+                .setParent(parent)
+                .setSpanKind(SpanKind.SERVER)
+                .startSpan();
+        if (span.isRecording()) {
+            span.setAttribute("riff.function", functionName);
+            span.setAttribute("riff.arg_index", frame.getArgIndex());
+            span.setAttribute("riff.content_type", frame.getContentType());
+            span.setAttribute("riff.payload_size", frame.getPayload().size());
+        }
+        return span;
+    }
+
+    /**
+     * Returns a new tracker of the spans of frames dispatched to a function, awaiting its results.
+     */
+    Spans newSpans() {
+        return new Spans();
+    }
+
+    /**
+     * Adds the trace context of the span attached to a result, if any, to the headers of its output frame, and ends
+     * that span.
+     */
+    void encoded(MessageHeaders headers, OutputFrame.Builder frame) {
+        Span span = headers.get(SPAN_HEADER, Span.class);
+        if (span != null) {
+            propagator.inject(Context.root().with(span), frame, HEADERS_SETTER);
+            span.end();
+        }
+    }
+
+    /**
+     * Ends the span of a message which won't be dispatched to the function, if any.
+     */
+    static void discard(Message<?> message) {
+        Span span = message.getHeaders().get(SPAN_HEADER, Span.class);
+        if (span != null) {
+            span.end();
+        }
+    }
+
+    /**
+     * Tracks the spans of the frames dispatched to a function, in order, until the function produces their result.
+     */
+    static final class Spans {
+
+        private final Deque<Span> pending = new ArrayDeque<>();
+
+        private Span latest;
+
+        private Spans() {
+        }
+
+        /**
+         * Takes the span off a message about to be dispatched to the function.
+         */
+        Message<byte[]> dispatched(Message<byte[]> message) {
+            Span span = message.getHeaders().get(SPAN_HEADER, Span.class);
+            if (span == null) {
+                return message;
+            }
+            synchronized (this) {
+                if (pending.size() == MAX_PENDING_SPANS) {
+                    pending.pollFirst().end();
+                }
+                pending.addLast(span);
+            }
+            return MessageBuilder.fromMessage(message).removeHeader(SPAN_HEADER).build();
+        }
+
+        /**
+         * Attaches the span of the oldest frame awaiting its result to a result of the function. Results produced past
+         * the frames dispatched are attached the span of the latest one.
+         */
+        Message<byte[]> produced(Message<byte[]> result) {
+            Span span;
+            synchronized (this) {
+                span = pending.pollFirst();
+                if (span == null) {
+                    span = latest;
+                } else {
+                    latest = span;
+                }
+            }
+            return span == null ? result : MessageBuilder.fromMessage(result).setHeader(SPAN_HEADER, span).build();
+        }
+
+        /**
+         * Ends the spans of the frames still awaiting a result, recording the failure of the function, if any.
+         */
+        synchronized void finished(Throwable error) {
+            for (Span span : pending) {
+                if (error != null) {
+                    span.recordException(error);
+                    span.setStatus(StatusCode.ERROR);
+                }
+                span.end();
+            }
+            pending.clear();
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package io.projectriff.invoker.server;
+
+import org.reactivestreams.Publisher;
+import org.springframework.messaging.Message;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.concurrent.Queues;
+
+import java.util.Objects;
+import java.util.function.Function;
+
+/**
+ * Partitions the input messages of a single-input function into parallel lanes, by the value of a key header.
+ *
+ * <p>Each lane gets its own application of the function, fed on its own worker of a parallel scheduler, so that the
+ * messages of a given key are processed in order, by a single lane, while different keys are processed in parallel.
+ * Messages without the key header all go to the same lane. Outputs of all lanes are merged as they come, so ordering
+ * is only preserved within a key.</p>
+ */
+final class FunctionLanes {
+
+    private final String keyHeader;
+
+    private final int lanes;
+
+    private final Scheduler scheduler;
+
+    FunctionLanes(String keyHeader, int lanes) {
+        this.keyHeader = keyHeader;
+        this.lanes = lanes;
+        this.scheduler = Schedulers.newParallel("riff-lane", lanes, true);
+    }
+
+    /**
+     * Applies the given pipeline to each lane of the input messages, merging the outputs of all lanes.
+     */
+    <T> Flux<T> apply(Flux<Message<byte[]>> messages, Function<Flux<Message<byte[]>>, ? extends Publisher<T>> pipeline) {
+        return messages
+                .groupBy(this::laneOf)
+                // there are at most that many groups, which must all be consumed for groupBy to make progress
+                .flatMap(lane -> pipeline.apply(lane.publishOn(scheduler)), lanes, Queues.SMALL_BUFFER_SIZE);
+    }
+
+    private int laneOf(Message<byte[]> message) {
+        return Math.floorMod(Objects.hashCode(message.getHeaders().get(keyHeader)), lanes);
+    }
+}
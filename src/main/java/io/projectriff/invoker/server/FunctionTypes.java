@@ -0,0 +1,63 @@
+package io.projectriff.invoker.server;
+
+import org.reactivestreams.Publisher;
+import org.springframework.cloud.function.context.catalog.FunctionTypeUtils;
+import org.springframework.core.ResolvableType;
+
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.Type;
+
+/**
+ * Inspects function signatures, complementing {@link FunctionTypeUtils}.
+ */
+final class FunctionTypes {
+
+    private FunctionTypes() {
+    }
+
+    /**
+     * Returns whether the function accepts an array of publishers, one per input argument, rather than a single input
+     * or a {@code TupleN} of inputs. Unlike {@link FunctionTypeUtils#isInputArray(Type)}, this excludes functions
+     * accepting an array as their single value, such as {@code byte[]}.
+     */
+    static boolean acceptsInputArray(Type functionType) {
+        if (functionType == null || !FunctionTypeUtils.isInputArray(functionType)) {
+            return false;
+        }
+        Type inputType = FunctionTypeUtils.getInputType(functionType, 0);
+        Type componentType = null;
+        if (inputType instanceof GenericArrayType) {
+            componentType = ((GenericArrayType) inputType).getGenericComponentType();
+        } else if (inputType instanceof Class) {
+            componentType = ((Class<?>) inputType).getComponentType();
+        }
+        return componentType != null
+                && Publisher.class.isAssignableFrom(ResolvableType.forType(componentType).resolve(Object.class));
+    }
+
+    /**
+     * Returns whether every output of the function is a value that Spring Cloud Function encodes into a new array, as
+     * opposed to a {@code byte[]} (or a value of unknown type) that converters may pass through as is, in which case
+     * the encoded payload can be the function's own array.
+     */
+    static boolean encodesAllOutputs(Type functionType) {
+        if (functionType == null) {
+            return false;
+        }
+        int outputs = FunctionTypeUtils.getOutputCount(functionType);
+        for (int i = 0; i < outputs; i++) {
+            Type outputType = FunctionTypeUtils.getOutputType(functionType, i);
+            if (outputType != null && FunctionTypeUtils.isPublisher(outputType)) {
+                outputType = FunctionTypeUtils.getImmediateGenericType(outputType, 0);
+            }
+            if (outputType != null && FunctionTypeUtils.isMessage(outputType)) {
+                outputType = FunctionTypeUtils.getImmediateGenericType(outputType, 0);
+            }
+            Class<?> outputClass = outputType == null ? null : ResolvableType.forType(outputType).resolve();
+            if (outputClass == null || outputClass.isAssignableFrom(byte[].class)) {
+                return false;
+            }
+        }
+        return outputs > 0;
+    }
+}
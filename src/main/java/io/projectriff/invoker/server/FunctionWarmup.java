@@ -0,0 +1,213 @@
+package io.projectriff.invoker.server;
+
+import com.google.protobuf.ByteString;
+import io.projectriff.invoker.rpc.InputFrame;
+import io.projectriff.invoker.rpc.InputSignal;
+import io.projectriff.invoker.rpc.StartFrame;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.cloud.function.context.FunctionCatalog;
+import org.springframework.cloud.function.context.catalog.FunctionTypeUtils;
+import org.springframework.core.ResolvableType;
+import org.springframework.util.ClassUtils;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.lang.reflect.Type;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Warms up the hosted functions before the invoker starts accepting invocations, so that the first real invocations
+ * don't pay for function class loading, converters initialization and JIT compilation of the invocation path.
+ *
+ * <p>Each function is first resolved via the {@link FunctionCatalog}, then, if sample payloads are set, warm-up
+ * invocations carrying them on the first input of the first (default) function are run, so that converters, the
+ * function and the frame path are all exercised. Functions without samples are only resolved, unless synthetic
+ * invocations are enabled, carrying a JSON payload on each input derived from its type (<i>e.g.</i> {@code 1} for
+ * numbers, {@code {}} for pojos). As those run the function on made up values, they are opt-in.</p>
+ *
+ * <p>Invocations go through a dedicated {@link GrpcServerAdapter}, without the state stores, caches, deduplication
+ * and metrics of the one serving invocations, so that they leave no trace. Failures are logged and abort the warm-up of
+ * that function, but never prevent the invoker from starting. So does a function not completing its invocation in
+ * time, which is waited for only once.</p>
+ */
+public class FunctionWarmup {
+
+    private static final Logger logger = LoggerFactory.getLogger(FunctionWarmup.class);
+
+    private static final String SYNTHETIC_CONTENT_TYPE = "application/json";
+
+    private final GrpcServerAdapter adapter;
+
+    private final FunctionCatalog functionCatalog;
+
+    private final List<String> functionNames;
+
+    private int iterations = 10;
+
+    private List<ByteString> samples = Collections.emptyList();
+
+    private String contentType = "application/json";
+
+    private String accept = "application/json";
+
+    private Duration timeout = Duration.ofSeconds(5);
+
+    private boolean synthetic;
+
+    public FunctionWarmup(FunctionCatalog functionCatalog, String... functionNames) {
+        this.functionCatalog = functionCatalog;
+        this.functionNames = Arrays.asList(functionNames);
+        this.adapter = new GrpcServerAdapter(functionCatalog, functionNames[0]);
+        this.adapter.setFunctionNames(this.functionNames.subList(1, functionNames.length));
+    }
+
+    public void setIterations(int iterations) {
+        this.iterations = iterations;
+    }
+
+    /**
+     * Sets the payloads sent on the first input of the default function, in order, for each warm-up invocation.
+     */
+    public void setSamples(List<ByteString> samples, String contentType) {
+        this.samples = samples;
+        this.contentType = contentType;
+    }
+
+    public void setAccept(String accept) {
+        this.accept = accept;
+    }
+
+    public void setTimeout(Duration timeout) {
+        this.timeout = timeout;
+    }
+
+    /**
+     * Sets whether functions without samples are invoked with synthetic payloads derived from their input types.
+     */
+    public void setSynthetic(boolean synthetic) {
+        this.synthetic = synthetic;
+    }
+
+    /**
+     * Returns a warm-up with the same settings, for the same functions as found in another catalog (<i>e.g.</i> loaded
+     * from a new version of the function).
+     */
+    public FunctionWarmup forCatalog(FunctionCatalog functionCatalog) {
+        FunctionWarmup warmup = new FunctionWarmup(functionCatalog, functionNames.toArray(new String[0]));
+        warmup.iterations = iterations;
+        warmup.samples = samples;
+        warmup.contentType = contentType;
+        warmup.accept = accept;
+        warmup.timeout = timeout;
+        warmup.synthetic = synthetic;
+        return warmup;
+    }
+
+    /**
+     * Runs the warm-up, returning the number of warm-up invocations that completed successfully, across all functions.
+     */
+    public int run() {
+        int done = 0;
+        for (int i = 0; i < functionNames.size(); i++) {
+            done += run(functionNames.get(i), i == 0 ? samples : Collections.emptyList());
+        }
+        return done;
+    }
+
+    private int run(String functionName, List<ByteString> payloads) {
+        long start = System.nanoTime();
+        Function<Object, Object> function = functionCatalog.lookup(functionName);
+        if (function == null) {
+            logger.warn("Skipping warm-up, function '{}' could not be located", functionName);
+            return 0;
+        }
+        if (payloads.isEmpty() && !synthetic) {
+            logger.info("Resolved function '{}' in {} ms, without warm-up invocations as no sample is set",
+                    functionName, Duration.ofNanos(System.nanoTime() - start).toMillis());
+            return 0;
+        }
+        Type functionType = FunctionTypeUtils.discoverFunctionTypeFromFunctionalObject(function);
+        int inputs = FunctionTypeUtils.getInputCount(functionType);
+        InputSignal startSignal = startSignal(functionName, inputs, FunctionTypeUtils.getOutputCount(functionType));
+        List<InputSignal> dataSignals = new ArrayList<>();
+        if (payloads.isEmpty()) {
+            for (int i = 0; i < inputs; i++) {
+                dataSignals.add(dataSignal(i, SYNTHETIC_CONTENT_TYPE, syntheticPayload(FunctionTypeUtils.getInputType(functionType, i))));
+            }
+        } else {
+            for (ByteString payload : payloads) {
+                dataSignals.add(dataSignal(0, contentType, payload));
+            }
+        }
+
+        int done = 0;
+        for (; done < iterations; done++) {
+            Flux<InputSignal> signals = Flux.fromIterable(dataSignals).startWith(startSignal);
+            try {
+                if (!adapter.invoke(signals).then().thenReturn(true).timeout(timeout, Mono.just(false)).block()) {
+                    logger.warn("Aborting warm-up of function '{}' after {} invocation(s), as it did not complete within {}",
+                            functionName, done, timeout);
+                    break;
+                }
+            } catch (RuntimeException e) {
+                logger.warn("Aborting warm-up of function '{}' after {} invocation(s)", functionName, done, e);
+                break;
+            }
+        }
+        logger.info("Warmed up function '{}' with {} invocation(s) in {} ms",
+                functionName, done, Duration.ofNanos(System.nanoTime() - start).toMillis());
+        return done;
+    }
+
+    private InputSignal startSignal(String functionName, int inputs, int outputs) {
+        StartFrame.Builder start = StartFrame.newBuilder()
+                .addAllExpectedContentTypes(Collections.nCopies(outputs, accept));
+        if (functionName != null) {
+            start.setFunctionName(functionName);
+        }
+        for (int i = 0; i < inputs; i++) {
+            start.addInputNames(String.valueOf(i));
+        }
+        return InputSignal.newBuilder().setStart(start).build();
+    }
+
+    private InputSignal dataSignal(int argIndex, String contentType, ByteString payload) {
+        return InputSignal.newBuilder()
+                .setData(InputFrame.newBuilder()
+                        .setArgIndex(argIndex)
+                        .setContentType(contentType)
+                        .setPayload(payload))
+                .build();
+    }
+
+    /**
+     * Returns a JSON payload that converts to the given input type, or to most pojos if it can't be determined.
+     */
+    static ByteString syntheticPayload(Type inputType) {
+        Type valueType = inputType;
+        if (valueType != null && FunctionTypeUtils.isPublisher(valueType)) {
+            valueType = FunctionTypeUtils.getImmediateGenericType(valueType, 0);
+        }
+        if (valueType != null && FunctionTypeUtils.isMessage(valueType)) {
+            valueType = FunctionTypeUtils.getImmediateGenericType(valueType, 0);
+        }
+        Class<?> valueClass = valueType == null ? Object.class : ClassUtils.resolvePrimitiveIfNecessary(ResolvableType.forType(valueType).resolve(Object.class));
+        if (Number.class.isAssignableFrom(valueClass)) {
+            return ByteString.copyFromUtf8("1");
+        } else if (Boolean.class.equals(valueClass)) {
+            return ByteString.copyFromUtf8("true");
+        } else if (CharSequence.class.isAssignableFrom(valueClass) || Character.class.equals(valueClass)) {
+            return ByteString.copyFromUtf8("\"w\"");
+        } else if (Collection.class.isAssignableFrom(valueClass) || (valueClass.isArray() && !byte[].class.equals(valueClass))) {
+            return ByteString.copyFromUtf8("[]");
+        }
+        return ByteString.copyFromUtf8("{}");
+    }
+}
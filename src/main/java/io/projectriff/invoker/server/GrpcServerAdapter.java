@@ -2,8 +2,14 @@ package io.projectriff.invoker.server;
 
 import com.google.protobuf.ByteString;
 import com.google.protobuf.ProtocolStringList;
+import com.google.protobuf.UnsafeByteOperations;
+import io.grpc.Metadata;
 import io.grpc.Status;
 import io.grpc.StatusException;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.opentelemetry.api.OpenTelemetry;
+import io.projectriff.invoker.protocol.ChunkCodec;
+import io.projectriff.invoker.protocol.FrameHeaders;
 import io.projectriff.invoker.rpc.InputSignal;
 import io.projectriff.invoker.rpc.OutputFrame;
 import io.projectriff.invoker.rpc.OutputSignal;
@@ -11,7 +17,9 @@ import io.projectriff.invoker.rpc.ReactorRiffGrpc;
 import org.reactivestreams.Publisher;
 import org.reactivestreams.Subscription;
 import org.springframework.cloud.function.context.FunctionCatalog;
+import org.springframework.cloud.function.context.FunctionRegistration;
 import org.springframework.cloud.function.context.catalog.BeanFactoryAwareFunctionRegistry;
+import org.springframework.cloud.function.context.catalog.FunctionInspector;
 import org.springframework.cloud.function.context.catalog.FunctionTypeUtils;
 import org.springframework.messaging.Message;
 import org.springframework.messaging.MessageHeaders;
@@ -19,19 +27,29 @@ import org.springframework.messaging.converter.MessageConversionException;
 import org.springframework.messaging.support.GenericMessage;
 import org.springframework.messaging.support.MessageBuilder;
 import org.springframework.util.MimeType;
+import org.springframework.util.MimeTypeUtils;
 import reactor.core.CoreSubscriber;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.GroupedFlux;
+import reactor.core.publisher.Mono;
 import reactor.core.publisher.Operators;
 import reactor.core.publisher.Signal;
+import reactor.core.publisher.SignalType;
+import reactor.util.concurrent.Queues;
 import reactor.util.context.Context;
 import reactor.util.function.Tuple2;
 import reactor.util.function.Tuples;
 
 import java.lang.reflect.Type;
-import java.util.Comparator;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
+import java.util.function.Predicate;
 
 /**
  * Reactive gRPC adapter for riff.
@@ -51,41 +69,411 @@ public class GrpcServerAdapter extends ReactorRiffGrpc.RiffImplBase {
      */
     public static final String INVOKER_NOT_ACCEPTABLE = "Invoker: Not Acceptable: ";
 
-    private final FunctionCatalog functionCatalog;
+    /**
+     * The trailer used to tell clients how long to wait (in milliseconds) before retrying a rejected invocation,
+     * as defined by gRPC retry pushback.
+     */
+    public static final Metadata.Key<String> RETRY_PUSHBACK_MS = Metadata.Key.of("grpc-retry-pushback-ms", Metadata.ASCII_STRING_MARSHALLER);
 
     private final String functionName;
 
+    private final Set<String> functionNames = new HashSet<>();
+
+    private AdaptiveConcurrencyLimiter concurrencyLimiter;
+
+    private boolean isolateErrors;
+
+    private String correlationHeader = "correlationId";
+
+    private FrameTracing tracing;
+
+    private boolean flightRecorderEvents;
+
+    private ErrorReporter errorReporter = new ErrorReporter();
+
+    private FrameLatency latency;
+
+    private MeterRegistry stageMetrics;
+
+    private long maxPayloadSize = 64L * 1024 * 1024;
+
+    private int outputChunkSize;
+
+    private StateStores stateStores;
+
+    private FunctionLanes lanes;
+
+    private ResultCache resultCache;
+
+    private FrameDeduplicator deduplicator;
+
+    private FairScheduler fairScheduler;
+
+    private volatile Generation generation;
+
     public GrpcServerAdapter(FunctionCatalog functionCatalog, String functionName) {
-        this.functionCatalog = functionCatalog;
+        this.generation = new Generation(0L, functionCatalog, () -> {
+        });
         this.functionName = functionName;
+        this.functionNames.add(functionName);
+    }
+
+    /**
+     * Switches new invocations to the functions of the given catalog, typically loaded from a new version of the
+     * function. Invocations in flight keep using the catalog they started with. Once the given catalog is itself
+     * replaced and all the invocations using it have completed, {@code onRelease} is called.
+     */
+    public synchronized void setFunctionCatalog(FunctionCatalog functionCatalog, Runnable onRelease) {
+        Generation previous = generation;
+        generation = new Generation(previous.number + 1, functionCatalog, onRelease);
+        previous.retire();
+        if (resultCache != null) {
+            // results are keyed by generation, those of the previous ones can't be hit anymore
+            resultCache.invalidateAll();
+        }
+    }
+
+    /**
+     * Sets the names of the functions that invocations may select via the StartFrame {@code functionName} field,
+     * in addition to the default function (used when that field is not set).
+     */
+    public void setFunctionNames(Collection<String> functionNames) {
+        this.functionNames.clear();
+        this.functionNames.add(functionName);
+        this.functionNames.addAll(functionNames);
+    }
+
+    /**
+     * Sets a limiter used to reject invocations early (with a {@code RESOURCE_EXHAUSTED} status) when too many are in flight.
+     */
+    public void setConcurrencyLimiter(AdaptiveConcurrencyLimiter concurrencyLimiter) {
+        this.concurrencyLimiter = concurrencyLimiter;
+    }
+
+    /**
+     * Sets the OpenTelemetry instance used to trace the processing of each frame, propagating W3C trace context
+     * from input frames to output frames.
+     */
+    public void setOpenTelemetry(OpenTelemetry openTelemetry) {
+        this.tracing = new FrameTracing(openTelemetry);
+    }
+
+    /**
+     * Sets the registry to record the latency of frames into, enabling latency metrics. This also records the time
+     * spent in each stage of fused function compositions.
+     *
+     * @see FrameLatency
+     * @see FunctionPipeline
+     */
+    public void setLatencyMetrics(MeterRegistry meterRegistry) {
+        this.latency = new FrameLatency(meterRegistry);
+        this.stageMetrics = meterRegistry;
+    }
+
+    /**
+     * Sets the maximum size of the payloads reassembled from chunks, in bytes. Payloads streamed to functions accepting
+     * {@link java.io.InputStream input streams} are not limited.
+     *
+     * @see FrameChunks
+     */
+    public void setMaxPayloadSize(long maxPayloadSize) {
+        this.maxPayloadSize = maxPayloadSize;
+    }
+
+    /**
+     * Sets the size above which output payloads are split into chunks, in bytes. Output payloads are never split if
+     * not strictly positive, which is the default.
+     *
+     * @see FrameChunks
+     */
+    public void setOutputChunkSize(int outputChunkSize) {
+        this.outputChunkSize = outputChunkSize;
+    }
+
+    /**
+     * Sets the state stores made available to functions, through the Reactor Context of their invocation.
+     *
+     * @see StateStore
+     */
+    public void setStateStores(StateStores stateStores) {
+        this.stateStores = stateStores;
+    }
+
+    /**
+     * Sets the header by which the inputs of single-input functions are partitioned into the given number of parallel
+     * lanes, each applying the function on its own thread. Inputs sharing the same key are processed in order, by the
+     * same lane. Inputs are not partitioned if there are less than 2 lanes, which is the default.
+     *
+     * @see FunctionLanes
+     */
+    public void setPartitioning(String keyHeader, int lanes) {
+        this.lanes = lanes > 1 ? new FunctionLanes(keyHeader, lanes) : null;
+    }
+
+    /**
+     * Sets the cache used to memoize the results of functions of single values, which must then be pure: inputs
+     * already seen (with the same content type, for the same accepted output type) are neither converted nor processed.
+     *
+     * @see ResultCache
+     */
+    public void setResultCache(ResultCache resultCache) {
+        this.resultCache = resultCache;
+    }
+
+    /**
+     * Sets the deduplicator used to recognize input frames already seen, by their idempotency key, which are then
+     * dropped or answered with the result of the original frame.
+     *
+     * @see FrameDeduplicator
+     */
+    public void setDeduplicator(FrameDeduplicator deduplicator) {
+        this.deduplicator = deduplicator;
+    }
+
+    /**
+     * Sets the scheduler sharing worker threads fairly between invocations, according to the StartFrame
+     * {@code priority} of each. Frames are otherwise processed on the threads delivering them.
+     *
+     * @see FairScheduler
+     */
+    public void setFairScheduler(FairScheduler fairScheduler) {
+        this.fairScheduler = fairScheduler;
+    }
+
+    /**
+     * Sets the reporter used to log invocation errors.
+     */
+    public void setErrorReporter(ErrorReporter errorReporter) {
+        this.errorReporter = errorReporter;
+    }
+
+    /**
+     * Sets whether Java Flight Recorder events are emitted for invocations and frames.
+     * Those events are only recorded while a recording enabling them is in progress.
+     *
+     * @see InvokerEvents
+     */
+    public void setFlightRecorderEvents(boolean flightRecorderEvents) {
+        this.flightRecorderEvents = flightRecorderEvents;
+    }
+
+    /**
+     * Sets whether a frame that fails conversion or processing produces an error frame (on the result index its result
+     * would have had, with a {@link FrameHeaders#ERROR_STATUS status header}) while the invocation keeps flowing, instead of
+     * terminating the invocation. Only the steps run by the invoker for each frame are isolated: encoding results, and
+     * applying functions of single values (input conversion, function and output conversion). Errors signalled within
+     * functions of publishers are theirs to handle, and still terminate the invocation.
+     */
+    public void setIsolateErrors(boolean isolateErrors) {
+        this.isolateErrors = isolateErrors;
+    }
+
+    /**
+     * Sets the header identifying a frame, copied from a failing frame onto the error frame it produces.
+     */
+    public void setCorrelationHeader(String correlationHeader) {
+        this.correlationHeader = correlationHeader;
     }
 
     @Override
     public Flux<OutputSignal> invoke(Flux<InputSignal> request) {
-        return request
+        InvocationContext context = InvocationContext.current();
+        Flux<OutputSignal> invocation = request
                 .switchOnFirst((first, stream) -> {
                     if (!first.hasValue() || !first.get().hasStart()) {
                         return Flux.error(Status.INVALID_ARGUMENT.withDescription("Expected first frame to be of type Start").asException());
                     }
 
-                    String[] accept = getExpectedOutputContentTypes(first);
+                    String name = getFunctionName(first.get());
+                    if (name == null) {
+                        return Flux.error(Status.NOT_FOUND.withDescription("Function '" + first.get().getStart().getFunctionName()
+                                + "' is not hosted by this invoker").asException());
+                    }
+                    // the catalog is held until the invocation terminates, so that it outlives a reload
+                    return Flux.using(this::acquireGeneration,
+                            generation -> invoke(first, stream, name, generation, context),
+                            Generation::release);
+                });
+        return concurrencyLimiter == null ? invocation : limitConcurrency(invocation, context);
+    }
+
+    private Flux<OutputSignal> invoke(Signal<? extends InputSignal> first, Flux<InputSignal> stream, String name,
+                                      Generation generation, InvocationContext context) {
+        String[] accept = getExpectedOutputContentTypes(first);
+        FunctionCatalog functionCatalog = generation.functionCatalog;
 
-                    Function<Object, Object> userFn = functionCatalog.lookup(functionName, accept);
-                    if (userFn == null) {
-                        return Flux.error(Status.NOT_FOUND.withDescription("Function could not be located").asException());
+        Function<Object, Object> userFn = FunctionPipeline.lookup(functionCatalog, name, accept, stageMetrics);
+        if (userFn == null) {
+            return Flux.error(Status.NOT_FOUND.withDescription("Function could not be located").asException());
+        }
+        Type functionType = FunctionTypeUtils.discoverFunctionTypeFromFunctionalObject(userFn);
+        boolean inputArray = FunctionTypes.acceptsInputArray(functionType);
+        // payloads freshly encoded by converters can be wrapped as is, while the function's own arrays must be copied
+        boolean wrapPayloads = !inputArray && !(userFn instanceof FunctionPipeline) && FunctionTypes.encodesAllOutputs(functionType);
+        int arity = getInputArity(userFn, inputArray, first.get());
+        if (arity < 0) {
+            return Flux.error(Status.INVALID_ARGUMENT.withDescription("Expected inputNames to be set for a function accepting an array of inputs").asException());
+        }
+        boolean[] streaming = FrameChunks.streamingArguments(userFn, arity);
+        if (inputArray) {
+            userFn = getArrayFunction(functionCatalog, userFn);
+            if (userFn == null) {
+                return Flux.error(Status.NOT_FOUND.withDescription("Function could not be located").asException());
+            }
+        }
+        // frames are stamped on arrival, before they possibly wait for their turn in the fair scheduler
+        Flux<Tuple2<Long, InputSignal>> frames = stream.skip(1L).map(in -> Tuples.of(latency == null ? 0L : System.nanoTime(), in));
+        if (fairScheduler != null) {
+            frames = fairScheduler.schedule(frames, first.get().getStart().getPriority());
+        }
+        Flux<Tuple2<Integer, Message<byte[]>>> messages = frames.map(in -> toSpringMessage(in.getT2(), in.getT1(), name, context));
+        if (flightRecorderEvents) {
+            messages = messages.transform(InvokerEvents.functionApply(name));
+        }
+        FrameLatency.Invocation timing = latency == null ? null : latency.newInvocation(name);
+        boolean singleValues = !inputArray && arity == 1 && !streaming[0] && ResultCache.isMemoizable(userFn);
+        if (resultCache != null && singleValues) {
+            userFn = resultCache.memoize(userFn, generation.number, name, String.join(",", accept));
+        }
+        boolean replayDuplicates = deduplicator != null && deduplicator.isReplaying() && singleValues;
+        if (replayDuplicates) {
+            userFn = deduplicator.replaying(userFn, name);
+        }
+        FrameDeduplicator.KeyFilter firstSeen = deduplicator != null && !replayDuplicates ? deduplicator.filter(name) : null;
+        if (isolateErrors && singleValues) {
+            userFn = isolateErrors(userFn, name);
+        }
+        Flux<Tuple2<Integer, Message<byte[]>>> output = messages.transform(invoker(userFn, arity, inputArray, streaming, firstSeen, context, timing));
+        Flux<OutputSignal> signals = output
+                // stop relaying results as soon as the caller gives up, which also cancels the function
+                .takeUntilOther(context.cancellation())
+                .concatWith(Mono.defer(() -> context.isCancelled()
+                        ? Mono.error(context.cancellationStatus().asException())
+                        : Mono.empty()))
+                .map(out -> encode(out, name, wrapPayloads, timing));
+        if (firstSeen != null) {
+            signals = signals.doOnNext(signal -> firstSeen.processed());
+        }
+        if (outputChunkSize > 0) {
+            signals = signals.concatMapIterable(signal -> ChunkCodec.split(signal.getData(), outputChunkSize));
+        }
+        Flux<OutputSignal> result = signals
+                // report the error as raised, before it's turned into a gRPC status
+                .doOnError(e -> errorReporter.report(name, e))
+                .onErrorMap(this::handleConversionExceptions)
+                .subscriberContext(ctx -> stateStores == null
+                        ? context.addTo(ctx)
+                        : context.addTo(ctx).put(StateStore.CONTEXT_KEY, stateStores.get(name)));
+        if (firstSeen != null) {
+            // frames whose result wasn't produced are processed again when redelivered
+            result = result.doOnError(e -> firstSeen.forgetPending()).doOnCancel(firstSeen::forgetPending);
+        }
+        return flightRecorderEvents ? recordEvents(result, name, arity) : result;
+    }
+
+    private Generation acquireGeneration() {
+        while (true) {
+            Generation current = generation;
+            if (current.acquire()) {
+                return current;
+            }
+            // replaced concurrently, retry with the new one
+        }
+    }
+
+    private Flux<OutputSignal> limitConcurrency(Flux<OutputSignal> invocation, InvocationContext context) {
+        return Flux.defer(() -> {
+            AdaptiveConcurrencyLimiter.Permit permit = concurrencyLimiter.tryAcquire();
+            if (permit == null) {
+                Metadata trailers = new Metadata();
+                trailers.put(RETRY_PUSHBACK_MS, String.valueOf(concurrencyLimiter.getRetryAfterMillis()));
+                return Flux.error(Status.RESOURCE_EXHAUSTED
+                        .withDescription("Too many concurrent invocations, limit is " + concurrencyLimiter.getLimit())
+                        .asException(trailers));
+            }
+            return invocation.doFinally(signal -> {
+                if (signal == SignalType.ON_COMPLETE) {
+                    permit.release();
+                } else if (context.isDeadlineExpired()) {
+                    permit.releaseDropped();
+                } else {
+                    permit.releaseIgnored();
+                }
+            });
+        });
+    }
+
+    private Flux<OutputSignal> recordEvents(Flux<OutputSignal> result, String name, int arity) {
+        InvokerEvents.Invocation event = new InvokerEvents.Invocation();
+        event.begin();
+        return result
+                .transform(InvokerEvents.<OutputSignal>backpressureStalls(name))
+                .doFinally(signal -> {
+                    if (event.shouldCommit()) {
+                        event.function = name;
+                        event.inputs = arity;
+                        event.outcome = signal.toString();
+                        event.commit();
                     }
-                    return stream
-                            .skip(1L)
-                            .map(this::toSpringMessage)
-                            .transform(invoker(userFn))
-                            .map(this::fromSpringMessage)
-                            .onErrorMap(this::handleConversionExceptions)
-                            .doOnError(Throwable::printStackTrace);
                 });
     }
 
+    /**
+     * Wraps the given function of single values (applied to a flux of messages) to apply it to each input in turn,
+     * turning a failure to convert or process an input into an error frame for its single result.
+     */
+    private Function<Object, Object> isolateErrors(Function<Object, Object> function, String name) {
+        return inputs -> ((Flux<Message<byte[]>>) inputs).concatMap(input ->
+                ((Flux<Message<byte[]>>) function.apply(Flux.just(input)))
+                        .onErrorResume(e -> {
+                            errorReporter.report(name, e);
+                            if (deduplicator != null) {
+                                deduplicator.forget(name, input);
+                            }
+                            return Mono.just(toErrorMessage(e, input));
+                        }), 1);
+    }
+
+    /**
+     * Encodes a result into an output frame, or into an error frame on the same result index if that fails and errors
+     * are isolated.
+     */
+    private OutputSignal encode(Tuple2<Integer, Message<byte[]>> out, String name, boolean wrapPayload,
+                                FrameLatency.Invocation timing) {
+        try {
+            return fromSpringMessage(out, name, wrapPayload, timing);
+        } catch (RuntimeException e) {
+            if (!isolateErrors) {
+                FrameTracing.discard(out.getT2());
+                throw e;
+            }
+            errorReporter.report(name, e);
+            return fromSpringMessage(Tuples.of(out.getT1(), toErrorMessage(e, out.getT2())), name, true, timing);
+        }
+    }
+
+    private Message<byte[]> toErrorMessage(Throwable e, Message<?> value) {
+        Status status = handleConversionExceptions(e).getStatus();
+        MessageBuilder<byte[]> builder = MessageBuilder
+                .withPayload(String.valueOf(status.getDescription()).getBytes(StandardCharsets.UTF_8))
+                .setHeader(MessageHeaders.CONTENT_TYPE, MimeTypeUtils.TEXT_PLAIN)
+                .setHeader(FrameHeaders.ERROR_STATUS, status.getCode().name());
+        Object correlationId = value.getHeaders().get(correlationHeader);
+        if (correlationId != null) {
+            builder.setHeader(correlationHeader, correlationId.toString());
+        }
+        // the error frame carries the trace context of the result it replaces, if any
+        Object span = value.getHeaders().get(FrameTracing.SPAN_HEADER);
+        if (span != null) {
+            builder.setHeader(FrameTracing.SPAN_HEADER, span);
+        }
+        return builder.build();
+    }
+
     private StatusException handleConversionExceptions(Throwable e) {
-        if (e instanceof MessageConversionException && BeanFactoryAwareFunctionRegistry.COULD_NOT_CONVERT_INPUT.equals(e.getMessage())) {
+        if (e instanceof StatusException) {
+            return (StatusException) e;
+        } else if (e instanceof MessageConversionException && BeanFactoryAwareFunctionRegistry.COULD_NOT_CONVERT_INPUT.equals(e.getMessage())) {
             return Status.INVALID_ARGUMENT.withDescription(INVOKER_UNSUPPORTED_MEDIA_TYPE + e.getMessage()).withCause(e).asException();
         } else if (e instanceof MessageConversionException && BeanFactoryAwareFunctionRegistry.COULD_NOT_CONVERT_OUTPUT.equals(e.getMessage())) {
             return Status.INVALID_ARGUMENT.withDescription(INVOKER_NOT_ACCEPTABLE + e.getMessage()).withCause(e).asException();
@@ -93,50 +481,160 @@ public class GrpcServerAdapter extends ReactorRiffGrpc.RiffImplBase {
         return Status.UNKNOWN.withDescription(e.getMessage()).withCause(e).asException();
     }
 
+    /**
+     * Returns the name of the function selected by the StartFrame, the default function if none is selected,
+     * or null if the selected function is not hosted.
+     */
+    private String getFunctionName(InputSignal start) {
+        String requested = start.getStart().getFunctionName();
+        if (requested.isEmpty()) {
+            return functionName;
+        }
+        return functionNames.contains(requested) ? requested : null;
+    }
+
     private String[] getExpectedOutputContentTypes(Signal<? extends InputSignal> first) {
         InputSignal firstSignal = first.get();
         ProtocolStringList expectedContentTypesList = firstSignal.getStart().getExpectedContentTypesList();
         return expectedContentTypesList.toArray(String[]::new);
     }
 
-    private Tuple2<Integer, Message<byte[]>> toSpringMessage(InputSignal in) {
+    /**
+     * Returns the number of input arguments of the function, as declared by its signature. Functions that accept an
+     * array of inputs (not limited to what {@code TupleN} can represent) derive their arity from the StartFrame
+     * {@code inputNames} instead. Returns -1 if the arity can't be determined.
+     */
+    private int getInputArity(Function<Object, Object> fn, boolean inputArray, InputSignal start) {
+        if (fn instanceof FunctionPipeline) {
+            // fused stages all have a single input
+            return 1;
+        }
+        if (inputArray) {
+            int count = start.getStart().getInputNamesCount();
+            return count > 0 ? count : -1;
+        }
+        return FunctionTypeUtils.getInputCount(FunctionTypeUtils.discoverFunctionTypeFromFunctionalObject(fn));
+    }
+
+    /**
+     * Returns the function accepting an array of inputs as it was registered, or null if it can't be located. Spring
+     * Cloud Function can't convert arrays of inputs, so such functions are invoked directly: each input is a
+     * {@code Flux<Message<byte[]>>} of the frames received (reassembled from chunks), and outputs must be publishers of
+     * {@code Message<byte[]>}, whose content type defaults to {@code application/octet-stream}.
+     */
+    private Function<Object, Object> getArrayFunction(FunctionCatalog functionCatalog, Function<Object, Object> fn) {
+        FunctionRegistration<?> registration = functionCatalog instanceof FunctionInspector
+                ? ((FunctionInspector) functionCatalog).getRegistration(fn)
+                : null;
+        if (registration == null || !(registration.getTarget() instanceof Function)) {
+            return null;
+        }
+        return (Function<Object, Object>) registration.getTarget();
+    }
+
+    private Tuple2<Integer, Message<byte[]>> toSpringMessage(InputSignal in, long arrivedAt, String name, InvocationContext context) {
         if (!in.hasData()) {
             throw new RuntimeException("Expected DataFrame, got " + in.getFrameCase());
         }
+        InvokerEvents.FrameDecode event = flightRecorderEvents ? new InvokerEvents.FrameDecode() : null;
+        if (event != null) {
+            event.begin();
+        }
         int argIndex = in.getData().getArgIndex();
         String contentType = in.getData().getContentType();
-        Message<byte[]> message = MessageBuilder
+        MessageBuilder<byte[]> builder = MessageBuilder
                 .withPayload(in.getData().getPayload().toByteArray())
                 .setHeader(MessageHeaders.CONTENT_TYPE, contentType)
-                .copyHeadersIfAbsent(in.getData().getHeadersMap())
-                .build();
+                .copyHeadersIfAbsent(in.getData().getHeadersMap());
+        if (in.getData().hasChunk()) {
+            builder.setHeader(FrameChunks.SEQUENCE_HEADER, in.getData().getChunk().getSequence())
+                    .setHeader(FrameChunks.LAST_HEADER, in.getData().getChunk().getLast());
+        }
+        if (context.getDeadline() != null) {
+            builder.setHeader(InvocationContext.DEADLINE_HEADER, context.getDeadline().toEpochMilli());
+        }
+        if (latency != null) {
+            builder.setHeader(FrameLatency.ARRIVED_AT_HEADER, arrivedAt);
+        }
+        if (tracing != null && (!in.getData().hasChunk() || in.getData().getChunk().getSequence() == 0)) {
+            // a span per payload, carried by its first chunk
+            builder.setHeader(FrameTracing.SPAN_HEADER, tracing.start(in.getData(), name));
+        }
+        Message<byte[]> message = builder.build();
+        if (event != null && event.shouldCommit()) {
+            event.function = name;
+            event.argIndex = argIndex;
+            event.payloadSize = message.getPayload().length;
+            event.contentType = contentType;
+            event.commit();
+        }
         return Tuples.of(argIndex, message);
     }
 
-    private OutputSignal fromSpringMessage(Tuple2<Integer, Message<byte[]>> out) {
+    /**
+     * Turns a result into an output frame. The payload array is wrapped rather than copied if {@code wrapPayload},
+     * which requires that nothing mutates it afterwards: converters hand over freshly encoded arrays, but may pass
+     * through arrays produced (and possibly reused) by the function.
+     */
+    private OutputSignal fromSpringMessage(Tuple2<Integer, Message<byte[]>> out, String name, boolean wrapPayload,
+                                           FrameLatency.Invocation timing) {
+        InvokerEvents.FrameEncode event = flightRecorderEvents ? new InvokerEvents.FrameEncode() : null;
+        if (event != null) {
+            event.begin();
+        }
         int resultIndex = out.getT1();
         MessageHeaders headers = out.getT2().getHeaders();
-        MimeType contentType = headers.get(MessageHeaders.CONTENT_TYPE, MimeType.class);
+        MimeType contentType = getContentType(headers);
         OutputFrame.Builder builderForOutputFrame = OutputFrame.newBuilder()
                 .setContentType(contentType.toString())
                 .setResultIndex(resultIndex)
-                .setPayload(ByteString.copyFrom(out.getT2().getPayload()));
+                .setPayload(wrapPayload
+                        ? UnsafeByteOperations.unsafeWrap(out.getT2().getPayload())
+                        : ByteString.copyFrom(out.getT2().getPayload()));
 
         headers.entrySet().stream().filter(e -> !e.getKey().equals(MessageHeaders.CONTENT_TYPE) && e.getValue() instanceof String)
                 .forEach(e -> builderForOutputFrame.putHeaders(e.getKey(), (String) e.getValue()));
-        return OutputSignal.newBuilder()
+        if (tracing != null) {
+            tracing.encoded(headers, builderForOutputFrame);
+        }
+        if (timing != null) {
+            timing.produced(resultIndex, builderForOutputFrame);
+        }
+        OutputSignal signal = OutputSignal.newBuilder()
                 .setData(builderForOutputFrame)
                 .build();
+        if (event != null && event.shouldCommit()) {
+            event.function = name;
+            event.resultIndex = resultIndex;
+            event.payloadSize = out.getT2().getPayload().length;
+            event.contentType = contentType.toString();
+            event.commit();
+        }
+        return signal;
     }
 
-    private Function<Flux<Tuple2<Integer, Message<byte[]>>>, Flux<Tuple2<Integer, Message<byte[]>>>> invoker(Function<Object, Object> springCloudFunction) {
-        Type functionType = FunctionTypeUtils.discoverFunctionTypeFromFunctionalObject(springCloudFunction);
-        int arity = FunctionTypeUtils.getInputCount(functionType);
+    private MimeType getContentType(MessageHeaders headers) {
+        Object contentType = headers.get(MessageHeaders.CONTENT_TYPE);
+        if (contentType == null) {
+            // only functions accepting an array of inputs may produce messages without content type
+            return MimeTypeUtils.APPLICATION_OCTET_STREAM;
+        }
+        return contentType instanceof MimeType ? (MimeType) contentType : MimeType.valueOf(contentType.toString());
+    }
 
+    private Function<Flux<Tuple2<Integer, Message<byte[]>>>, Flux<Tuple2<Integer, Message<byte[]>>>> invoker(Function<Object, Object> springCloudFunction, int arity,
+                                                                                                   boolean inputArray, boolean[] streaming, Predicate<Message<byte[]>> firstSeen,
+                                                                                                   InvocationContext context,
+                                                                                                   FrameLatency.Invocation timing) {
+        FrameTracing.Spans spans = tracing == null ? null : tracing.newSpans();
         Tuple2<Integer, Message<byte[]>>[] startTuples = new Tuple2[arity];
+        boolean anyStreaming = false;
         for (int i = 0; i < startTuples.length; i++) {
             startTuples[i] = Tuples.of(i, new GenericMessage<>(new byte[0]));
+            anyStreaming |= streaming[i];
         }
+        // chunks streamed to input streams are only requested a few at a time, on top of the dummy message of each group
+        int prefetch = anyStreaming ? arity + FrameChunks.PREFETCH : Queues.SMALL_BUFFER_SIZE;
 
 
         return
@@ -146,32 +644,89 @@ public class GrpcServerAdapter extends ReactorRiffGrpc.RiffImplBase {
                         // it shouldn't. Those cancels are a consequence of FluxGroupBy.complete()
                         .transform(ignoreCancelsAfterComplete())
                         // group by arg index (ie de-mux)
-                        .groupBy(Tuple2::getT1, Tuple2::getT2)
+                        .groupBy(Tuple2::getT1, Tuple2::getT2, prefetch)
                         // chop the outer flux. We know there will ever be exactly that many groups
                         .take(startTuples.length)
-                        // collect in order
-                        .collectSortedList(Comparator.comparingInt(GroupedFlux::key))
-
-                        .flatMapMany(groupList -> {
-                            // skip(1) below drops the dummy messages which were introduced above
-                            Object[] args = groupList.stream().map(g -> g.skip(1)).toArray(Object[]::new);
-                            Object tuple = asTupleOrSingleArg(args);
-                            // apply the function
-                            Object result = springCloudFunction.apply(tuple);
-
-                            Flux<Message<byte[]>>[] bareOutputs = promoteToArray(result);
-                            // finally, merge all fluxes as Tuple2s with the output index set
-                            Flux<Tuple2<Integer, Message<byte[]>>>[] withOutputIndices = new Flux[bareOutputs.length];
-                            for (int i = 0; i < bareOutputs.length; i++) {
-                                int j = i;
-                                withOutputIndices[i] = bareOutputs[i].map(msg -> Tuples.of(j, msg));
+                        // collect in order, directly indexed by arg index.
+                        // skip(1) below drops the dummy messages which were introduced above, and frames still queued
+                        // once the invocation is cancelled are not dispatched to the function
+                        .collect(() -> new Object[arity], (args, g) -> args[g.key()] = dispatch(g, streaming[g.key()], firstSeen, context, timing, spans))
+
+                        .flatMapMany(args -> {
+                            if (lanes != null && arity == 1 && !inputArray && !streaming[0]) {
+                                // apply the function once per lane
+                                return lanes.apply((Flux<Message<byte[]>>) args[0], lane -> {
+                                    // results are matched to frames within each lane, as lanes complete out of order
+                                    FrameTracing.Spans laneSpans = tracing == null ? null : tracing.newSpans();
+                                    return traced(withOutputIndices(springCloudFunction.apply(
+                                            laneSpans == null ? lane : lane.map(laneSpans::dispatched))), laneSpans);
+                                });
                             }
-                            return Flux.merge(withOutputIndices);
-
+                            if (spans != null) {
+                                for (int i = 0; i < arity; i++) {
+                                    if (!streaming[i]) {
+                                        args[i] = ((Flux<Message<byte[]>>) args[i]).map(spans::dispatched);
+                                    }
+                                }
+                            }
+                            // functions accepting an array of inputs get it whatever their number
+                            Object input = inputArray ? Arrays.copyOf(args, arity, Flux[].class) : asTupleOrSingleArg(args);
+                            // apply the function
+                            Object result = springCloudFunction.apply(input);
+                            return traced(withOutputIndices(result), spans);
                         })
                 ;
     }
 
+    private Flux<Tuple2<Integer, Message<byte[]>>> withOutputIndices(Object result) {
+        Flux<Message<byte[]>>[] bareOutputs = promoteToArray(result);
+        // finally, merge all fluxes as Tuple2s with the output index set
+        Flux<Tuple2<Integer, Message<byte[]>>>[] withOutputIndices = new Flux[bareOutputs.length];
+        for (int i = 0; i < bareOutputs.length; i++) {
+            int j = i;
+            withOutputIndices[i] = bareOutputs[i].map(msg -> Tuples.of(j, msg));
+        }
+        return Flux.merge(Queues.SMALL_BUFFER_SIZE, withOutputIndices);
+    }
+
+    /**
+     * Attaches the spans of the frames dispatched to the function to the results it produces, if tracing.
+     */
+    private Flux<Tuple2<Integer, Message<byte[]>>> traced(Flux<Tuple2<Integer, Message<byte[]>>> results, FrameTracing.Spans spans) {
+        if (spans == null) {
+            return results;
+        }
+        return results
+                .map(out -> Tuples.of(out.getT1(), spans.produced(out.getT2())))
+                .doOnError(spans::finished)
+                .doFinally(signal -> spans.finished(null));
+    }
+
+    private Flux<?> dispatch(GroupedFlux<Integer, Message<byte[]>> group, boolean streaming, Predicate<Message<byte[]>> firstSeen,
+                             InvocationContext context, FrameLatency.Invocation timing, FrameTracing.Spans spans) {
+        Flux<Message<byte[]>> messages = group.skip(1).filter(m -> dispatched(!context.isCancelled(), m));
+        if (timing != null) {
+            messages = messages.map(m -> timing.dispatched(group.key(), m));
+        }
+        if (spans != null && streaming) {
+            // the spans of streamed payloads are taken off their first chunk, before they are turned into a stream
+            messages = messages.map(spans::dispatched);
+        }
+        Flux<?> arguments = FrameChunks.assemble(messages, streaming, maxPayloadSize);
+        // duplicates are recognized once reassembled, as only the first chunk of a payload carries its headers
+        return firstSeen == null || streaming ? arguments : ((Flux<Message<byte[]>>) arguments).filter(m -> dispatched(firstSeen.test(m), m));
+    }
+
+    /**
+     * Returns whether a message is dispatched to the function, ending its span if it isn't.
+     */
+    private static boolean dispatched(boolean dispatched, Message<byte[]> message) {
+        if (!dispatched) {
+            FrameTracing.discard(message);
+        }
+        return dispatched;
+    }
+
     // Used to transform the publisher chain into one that doesn't forward cancel() calls once it has complete()d.
     private Function<? super Publisher<Tuple2<Integer, Message<byte[]>>>, ? extends Publisher<Tuple2<Integer, Message<byte[]>>>> ignoreCancelsAfterComplete() {
         return Operators.lift((f, actual) ->
@@ -219,15 +774,15 @@ public class GrpcServerAdapter extends ReactorRiffGrpc.RiffImplBase {
     }
 
     private Flux<Message<byte[]>>[] promoteToArray(Object result) {
-        if (result instanceof Tuple2) {
-            Object[] objects = ((Tuple2) result).toArray();
+        if (result instanceof Tuple2 || result instanceof Object[]) {
+            Object[] objects = result instanceof Tuple2 ? ((Tuple2) result).toArray() : (Object[]) result;
             Flux<Message<byte[]>>[] fluxArray = new Flux[objects.length];
             for (int i = 0; i < objects.length; i++) {
-                fluxArray[i] = (Flux<Message<byte[]>>) objects[i];
+                fluxArray[i] = Flux.from((Publisher<Message<byte[]>>) objects[i]);
             }
             return fluxArray;
         } else {
-            Flux<Message<byte[]>> item = (Flux<Message<byte[]>>) result;
+            Flux<Message<byte[]>> item = Flux.from((Publisher<Message<byte[]>>) result);
             return new Flux[]{item};
         }
     }
@@ -243,4 +798,59 @@ public class GrpcServerAdapter extends ReactorRiffGrpc.RiffImplBase {
         }
     }
 
+    /**
+     * A function catalog along with the number of invocations using it, so that it can be released once it has been
+     * replaced and those invocations have completed.
+     */
+    private static final class Generation {
+
+        private final long number;
+
+        private final FunctionCatalog functionCatalog;
+
+        private final Runnable onRelease;
+
+        private final AtomicInteger invocations = new AtomicInteger();
+
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private volatile boolean retired;
+
+        private Generation(long number, FunctionCatalog functionCatalog, Runnable onRelease) {
+            this.number = number;
+            this.functionCatalog = functionCatalog;
+            this.onRelease = onRelease;
+        }
+
+        /**
+         * Returns false if this generation has been replaced, in which case it must not be used.
+         */
+        private boolean acquire() {
+            invocations.incrementAndGet();
+            if (retired) {
+                release();
+                return false;
+            }
+            return true;
+        }
+
+        private void release() {
+            if (invocations.decrementAndGet() == 0 && retired) {
+                releaseOnce();
+            }
+        }
+
+        private void retire() {
+            retired = true;
+            if (invocations.get() == 0) {
+                releaseOnce();
+            }
+        }
+
+        private void releaseOnce() {
+            if (released.compareAndSet(false, true)) {
+                onRelease.run();
+            }
+        }
+    }
 }
@@ -0,0 +1,104 @@
+package io.projectriff.invoker.server;
+
+import io.grpc.Deadline;
+import io.grpc.Status;
+import reactor.core.publisher.Mono;
+import reactor.util.context.Context;
+
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Holds the deadline and cancellation state of an invocation, and exposes them to functions.
+ *
+ * <p>Reactive functions can read the {@link #DEADLINE_KEY deadline} and a {@link #CANCELLATION_KEY cancellation signal}
+ * from the Reactor {@link Context}, while functions accepting {@link org.springframework.messaging.Message}s can read the
+ * deadline from the {@link #DEADLINE_HEADER} header of each message. Keys are plain strings so that functions don't need
+ * to depend on the invoker.</p>
+ */
+public final class InvocationContext {
+
+    /**
+     * The Reactor Context key holding the {@link Instant} after which the caller will have given up on the invocation.
+     * Absent if the caller did not set a deadline.
+     */
+    public static final String DEADLINE_KEY = "riff.invocation.deadline";
+
+    /**
+     * The Reactor Context key holding a {@code Mono<Void>} that completes when the invocation is cancelled,
+     * either explicitly by the caller or because its deadline expired.
+     */
+    public static final String CANCELLATION_KEY = "riff.invocation.cancellation";
+
+    /**
+     * The message header holding the deadline of the invocation, in milliseconds since the epoch (as a {@code Long}).
+     * Absent if the caller did not set a deadline.
+     */
+    public static final String DEADLINE_HEADER = "riff-deadline";
+
+    private static final InvocationContext NONE = new InvocationContext(io.grpc.Context.ROOT);
+
+    private final io.grpc.Context grpcContext;
+
+    private final Instant deadline;
+
+    private final Mono<Void> cancellation;
+
+    private InvocationContext(io.grpc.Context grpcContext) {
+        this.grpcContext = grpcContext;
+        Deadline grpcDeadline = grpcContext.getDeadline();
+        this.deadline = grpcDeadline == null ? null
+                : Instant.now().plusMillis(grpcDeadline.timeRemaining(TimeUnit.MILLISECONDS));
+        this.cancellation = Mono.create(sink -> {
+            io.grpc.Context.CancellationListener listener = c -> sink.success();
+            grpcContext.addListener(listener, Runnable::run);
+            sink.onDispose(() -> grpcContext.removeListener(listener));
+        });
+    }
+
+    /**
+     * Returns the context of the gRPC call being served by the current thread, or a context that never gets cancelled
+     * when invoked outside of a gRPC call.
+     */
+    static InvocationContext current() {
+        io.grpc.Context grpcContext = io.grpc.Context.current();
+        return grpcContext == io.grpc.Context.ROOT ? NONE : new InvocationContext(grpcContext);
+    }
+
+    /**
+     * Returns the deadline of the invocation, or null if none was set.
+     */
+    Instant getDeadline() {
+        return deadline;
+    }
+
+    boolean isCancelled() {
+        return grpcContext.isCancelled();
+    }
+
+    boolean isDeadlineExpired() {
+        return grpcContext.getDeadline() != null && grpcContext.getDeadline().isExpired();
+    }
+
+    /**
+     * Returns a Mono that completes when the invocation is cancelled.
+     */
+    Mono<Void> cancellation() {
+        return cancellation;
+    }
+
+    /**
+     * Adds the state of this invocation to the given Reactor Context.
+     */
+    Context addTo(Context context) {
+        Context result = context.put(CANCELLATION_KEY, cancellation);
+        return deadline == null ? result : result.put(DEADLINE_KEY, deadline);
+    }
+
+    /**
+     * Returns the status to report for a cancelled invocation.
+     */
+    Status cancellationStatus() {
+        return isDeadlineExpired() ? Status.DEADLINE_EXCEEDED : Status.CANCELLED;
+    }
+}
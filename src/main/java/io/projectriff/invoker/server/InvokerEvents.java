@@ -0,0 +1,223 @@
+package io.projectriff.invoker.server;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscription;
+import org.springframework.messaging.Message;
+import reactor.core.CoreSubscriber;
+import reactor.core.publisher.Operators;
+import reactor.util.context.Context;
+import reactor.util.function.Tuple2;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+/**
+ * Java Flight Recorder events emitted on the hot paths of the invoker.
+ *
+ * <p>Events are only recorded while a recording enabling them is in progress (they are enabled by the {@code default}
+ * and {@code profile} settings, and can be toggled individually at runtime, <i>e.g.</i> with
+ * {@code jcmd <pid> JFR.start settings=profile}). Otherwise, emitting an event boils down to a cheap enablement check.</p>
+ */
+final class InvokerEvents {
+
+    private InvokerEvents() {
+    }
+
+    @Name("io.projectriff.invoker.Invocation")
+    @Label("Invocation")
+    @Description("An invocation stream, from its start frame to its termination")
+    @Category({"riff", "Invoker"})
+    @StackTrace(false)
+    static final class Invocation extends Event {
+
+        @Label("Function")
+        String function;
+
+        @Label("Inputs")
+        int inputs;
+
+        @Label("Outcome")
+        @Description("How the invocation terminated: onComplete, onError or cancel")
+        String outcome;
+    }
+
+    @Name("io.projectriff.invoker.FrameDecode")
+    @Label("Frame Decode")
+    @Description("The decoding of an input frame into a message")
+    @Category({"riff", "Invoker"})
+    @StackTrace(false)
+    static final class FrameDecode extends Event {
+
+        @Label("Function")
+        String function;
+
+        @Label("Argument Index")
+        int argIndex;
+
+        @Label("Payload Size")
+        @DataAmount
+        int payloadSize;
+
+        @Label("Content Type")
+        String contentType;
+    }
+
+    @Name("io.projectriff.invoker.FunctionApply")
+    @Label("Function Apply")
+    @Description("The dispatch of a decoded input frame to the function, until the function returns control. "
+            + "Includes the encoding of results produced synchronously")
+    @Category({"riff", "Invoker"})
+    @StackTrace(false)
+    static final class FunctionApply extends Event {
+
+        @Label("Function")
+        String function;
+
+        @Label("Argument Index")
+        int argIndex;
+    }
+
+    @Name("io.projectriff.invoker.FrameEncode")
+    @Label("Frame Encode")
+    @Description("The encoding of a message into an output frame")
+    @Category({"riff", "Invoker"})
+    @StackTrace(false)
+    static final class FrameEncode extends Event {
+
+        @Label("Function")
+        String function;
+
+        @Label("Result Index")
+        int resultIndex;
+
+        @Label("Payload Size")
+        @DataAmount
+        int payloadSize;
+
+        @Label("Content Type")
+        String contentType;
+    }
+
+    @Name("io.projectriff.invoker.BackpressureStall")
+    @Label("Backpressure Stall")
+    @Description("A period during which output frames could not be sent, because the caller had not requested more")
+    @Category({"riff", "Invoker"})
+    @StackTrace(false)
+    static final class BackpressureStall extends Event {
+
+        @Label("Function")
+        String function;
+    }
+
+    /**
+     * Records a {@link FunctionApply} event around the dispatch of each decoded input frame.
+     */
+    static Function<? super Publisher<Tuple2<Integer, Message<byte[]>>>, ? extends Publisher<Tuple2<Integer, Message<byte[]>>>> functionApply(String function) {
+        return Operators.lift((scannable, actual) -> new ForwardingSubscriber<Tuple2<Integer, Message<byte[]>>>(actual) {
+            @Override
+            public void onNext(Tuple2<Integer, Message<byte[]>> in) {
+                FunctionApply event = new FunctionApply();
+                event.begin();
+                actual.onNext(in);
+                if (event.shouldCommit()) {
+                    event.function = function;
+                    event.argIndex = in.getT1();
+                    event.commit();
+                }
+            }
+        });
+    }
+
+    /**
+     * Records {@link BackpressureStall} events whenever all demand from downstream has been fulfilled, until more is
+     * requested.
+     */
+    static <T> Function<? super Publisher<T>, ? extends Publisher<T>> backpressureStalls(String function) {
+        return Operators.lift((scannable, actual) -> new ForwardingSubscriber<T>(actual) {
+
+            private final AtomicLong demand = new AtomicLong();
+
+            private final AtomicReference<BackpressureStall> stall = new AtomicReference<>();
+
+            @Override
+            public void onSubscribe(Subscription s) {
+                actual.onSubscribe(new Subscription() {
+                    @Override
+                    public void request(long n) {
+                        demand.accumulateAndGet(n, Operators::addCap);
+                        BackpressureStall event = stall.getAndSet(null);
+                        if (event != null && event.shouldCommit()) {
+                            event.function = function;
+                            event.commit();
+                        }
+                        s.request(n);
+                    }
+
+                    @Override
+                    public void cancel() {
+                        s.cancel();
+                    }
+                });
+            }
+
+            @Override
+            public void onNext(T t) {
+                long remaining = demand.get() == Long.MAX_VALUE ? Long.MAX_VALUE : demand.decrementAndGet();
+                if (remaining == 0L) {
+                    BackpressureStall event = new BackpressureStall();
+                    if (event.isEnabled()) {
+                        event.begin();
+                        stall.set(event);
+                        if (demand.get() > 0L) {
+                            // more was requested concurrently, this was not a stall after all
+                            stall.compareAndSet(event, null);
+                        }
+                    }
+                }
+                actual.onNext(t);
+            }
+        });
+    }
+
+    private static class ForwardingSubscriber<T> implements CoreSubscriber<T> {
+
+        protected final CoreSubscriber<? super T> actual;
+
+        private ForwardingSubscriber(CoreSubscriber<? super T> actual) {
+            this.actual = actual;
+        }
+
+        @Override
+        public void onSubscribe(Subscription s) {
+            actual.onSubscribe(s);
+        }
+
+        @Override
+        public void onNext(T t) {
+            actual.onNext(t);
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            actual.onError(t);
+        }
+
+        @Override
+        public void onComplete() {
+            actual.onComplete();
+        }
+
+        @Override
+        public Context currentContext() {
+            return actual.currentContext();
+        }
+    }
+}
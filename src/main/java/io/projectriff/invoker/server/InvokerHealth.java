@@ -0,0 +1,77 @@
+package io.projectriff.invoker.server;
+
+import io.grpc.BindableService;
+import io.grpc.Metadata;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.Status;
+import io.grpc.health.v1.HealthCheckResponse.ServingStatus;
+import io.grpc.services.HealthStatusManager;
+import io.projectriff.invoker.rpc.RiffGrpc;
+
+/**
+ * Tracks whether the invoker is ready to serve invocations, and exposes that state both through the standard
+ * {@code grpc.health.v1.Health} service and by rejecting {@code Invoke} calls with {@link Status#UNAVAILABLE} while not ready.
+ *
+ * <p>The invoker starts not serving (eg while warming up), becomes serving once ready, and stops serving for good when
+ * draining before shutdown.</p>
+ */
+public class InvokerHealth implements ServerInterceptor {
+
+    private final HealthStatusManager healthStatusManager = new HealthStatusManager();
+
+    private volatile boolean serving;
+
+    private volatile boolean draining;
+
+    public InvokerHealth() {
+        setStatus(ServingStatus.NOT_SERVING);
+    }
+
+    /**
+     * Returns the {@code grpc.health.v1.Health} service reflecting the state of the invoker.
+     */
+    public BindableService getHealthService() {
+        return healthStatusManager.getHealthService();
+    }
+
+    /**
+     * Marks the invoker as ready to accept invocations.
+     */
+    public synchronized void serving() {
+        if (draining) {
+            return;
+        }
+        setStatus(ServingStatus.SERVING);
+        serving = true;
+    }
+
+    /**
+     * Marks the invoker as not accepting new invocations anymore. This is a terminal state.
+     */
+    public synchronized void draining() {
+        draining = true;
+        serving = false;
+        healthStatusManager.enterTerminalState();
+    }
+
+    public boolean isServing() {
+        return serving;
+    }
+
+    private void setStatus(ServingStatus status) {
+        healthStatusManager.setStatus(HealthStatusManager.SERVICE_NAME_ALL_SERVICES, status);
+        healthStatusManager.setStatus(RiffGrpc.SERVICE_NAME, status);
+    }
+
+    @Override
+    public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call, Metadata headers, ServerCallHandler<ReqT, RespT> next) {
+        if (!serving) {
+            call.close(Status.UNAVAILABLE.withDescription("Invoker is not accepting invocations"), new Metadata());
+            return new ServerCall.Listener<ReqT>() {
+            };
+        }
+        return next.startCall(call, headers);
+    }
+}
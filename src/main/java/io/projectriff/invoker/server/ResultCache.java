@@ -0,0 +1,186 @@
+package io.projectriff.invoker.server;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.cloud.function.context.catalog.FunctionTypeUtils;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.support.MessageBuilder;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.lang.reflect.Type;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.function.Function;
+
+/**
+ * Memoizes the results of pure functions, so that inputs already seen are neither converted nor processed again.
+ *
+ * <p>Results are keyed by function (and version of the function, so that a reloaded function doesn't serve the results of
+ * the previous one), input content type, accepted output content type and SHA-256 hash of the input payload, and only
+ * their encoded payload and content type are held. On a hit, the output carries the headers of its
+ * input, as Spring Cloud Function does for functions of single values. The cache is bounded by the total size of the
+ * payloads it holds, evicting with the W-TinyLFU policy of Caffeine, and entries expire some time after being written.</p>
+ *
+ * <p>Only functions of single values (as opposed to functions of {@link org.reactivestreams.Publisher publishers})
+ * producing a single result are memoized, as they process each input independently. Functions of {@link Message}s are
+ * not, as their result may depend on input headers, and carry output headers, that the cache doesn't account for.</p>
+ */
+public class ResultCache implements MeterBinder {
+
+    /**
+     * The estimated size of the key and bookkeeping of an entry, in addition to the payload it holds.
+     */
+    private static final int ENTRY_OVERHEAD = 128;
+
+    private final Cache<Key, Result> cache;
+
+    /**
+     * @param maximumWeight the maximum total size of the payloads held, in bytes
+     * @param timeToLive    how long results are held after being computed
+     */
+    public ResultCache(long maximumWeight, Duration timeToLive) {
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(maximumWeight)
+                .weigher((Key key, Result result) -> ENTRY_OVERHEAD + key.contentType.length() + result.payload.length)
+                .expireAfterWrite(timeToLive)
+                .recordStats()
+                .build();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        CaffeineCacheMetrics.monitor(registry, cache, "riff.invoker.results");
+    }
+
+    /**
+     * Discards all the results held.
+     */
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    /**
+     * Returns whether the results of the given function can be memoized, ie whether it is a function of single values
+     * (other than messages) with a single result.
+     */
+    static boolean isMemoizable(Function<Object, Object> function) {
+        if (function instanceof FunctionPipeline) {
+            return false;
+        }
+        Type functionType = FunctionTypeUtils.discoverFunctionTypeFromFunctionalObject(function);
+        if (functionType == null || FunctionTypes.acceptsInputArray(functionType)) {
+            return false;
+        }
+        Type inputType = FunctionTypeUtils.getInputType(functionType, 0);
+        Type outputType = FunctionTypeUtils.getOutputType(functionType, 0);
+        return inputType != null && outputType != null && !FunctionTypeUtils.isPublisher(inputType)
+                && !FunctionTypeUtils.isPublisher(outputType) && !FunctionTypeUtils.isMessage(inputType)
+                && !FunctionTypeUtils.isMessage(outputType) && FunctionTypeUtils.getOutputCount(functionType) == 1;
+    }
+
+    /**
+     * Wraps the given function (applied to a flux of messages) to only apply it to inputs whose result is not known yet.
+     *
+     * @param generation the version of the function, changing whenever it is reloaded
+     */
+    Function<Object, Object> memoize(Function<Object, Object> function, long generation, String functionName, String accept) {
+        return inputs -> apply((Flux<Message<byte[]>>) inputs, generation, functionName, accept,
+                in -> (Flux<Message<byte[]>>) function.apply(in));
+    }
+
+    /**
+     * Applies the given function to each input in turn, unless its result is already known.
+     */
+    private Flux<Message<byte[]>> apply(Flux<Message<byte[]>> inputs, long generation, String functionName, String accept,
+                                        Function<Flux<Message<byte[]>>, Flux<Message<byte[]>>> function) {
+        return inputs.concatMap(input -> {
+            Key key = new Key(generation, functionName, String.valueOf(input.getHeaders().get(MessageHeaders.CONTENT_TYPE)), accept, digest(input.getPayload()));
+            Result result = cache.getIfPresent(key);
+            if (result != null) {
+                return Mono.just(result.toMessage(input));
+            }
+            return function.apply(Flux.just(input))
+                    .doOnNext(output -> cache.put(key, new Result(output)));
+        }, 1);
+    }
+
+    private static byte[] digest(byte[] payload) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(payload);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static final class Key {
+
+        private final long generation;
+
+        private final String functionName;
+
+        private final String contentType;
+
+        private final String accept;
+
+        private final byte[] digest;
+
+        private final int hashCode;
+
+        private Key(long generation, String functionName, String contentType, String accept, byte[] digest) {
+            this.generation = generation;
+            this.functionName = functionName;
+            this.contentType = contentType;
+            this.accept = accept;
+            this.digest = digest;
+            this.hashCode = Objects.hash(generation, functionName, contentType, accept, Arrays.hashCode(digest));
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return generation == other.generation && Arrays.equals(digest, other.digest) && contentType.equals(other.contentType)
+                    && Objects.equals(accept, other.accept) && Objects.equals(functionName, other.functionName);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    /**
+     * The encoded payload and content type of a result.
+     */
+    static final class Result {
+
+        final byte[] payload;
+
+        private final Object contentType;
+
+        Result(Message<byte[]> output) {
+            this.payload = output.getPayload();
+            this.contentType = output.getHeaders().get(MessageHeaders.CONTENT_TYPE);
+        }
+
+        /**
+         * Rebuilds the result of the given input, carrying its headers.
+         */
+        Message<byte[]> toMessage(Message<byte[]> input) {
+            return MessageBuilder.withPayload(payload)
+                    .copyHeaders(input.getHeaders())
+                    .setHeader(MessageHeaders.CONTENT_TYPE, contentType)
+                    .build();
+        }
+    }
+}
@@ -0,0 +1,289 @@
+package io.projectriff.invoker.server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A keyed state store for stateful functions, whose values live off-heap in a memory-mapped file, and survive restarts
+ * of the invoker (as long as the file does).
+ *
+ * <p>Functions get the store of their invocation from the Reactor {@link reactor.util.context.Context Context}, under
+ * the {@link #CONTEXT_KEY} key, as a {@code ConcurrentMap<String, byte[]>}, <i>e.g.</i>
+ * {@code Flux.deferWithContext(ctx -> ...ctx.<Map<String, byte[]>>get("riff.state")...)}.</p>
+ *
+ * <p>The file is an append-only log of records, only keys and the position of their latest record are kept on-heap.
+ * Writes go to the page cache and are made durable by {@link #flush()}, which also compacts the log once superseded
+ * records take up more than half of it. The log is compacted into a larger file when full. As values are copied in and
+ * out of the file, mutating an array after putting it, or after getting it, has no effect on the store.</p>
+ */
+public final class StateStore extends AbstractMap<String, byte[]> implements ConcurrentMap<String, byte[]>, Closeable {
+
+    /**
+     * The key of the state store in the Reactor Context of an invocation.
+     */
+    public static final String CONTEXT_KEY = "riff.state";
+
+    /**
+     * Each record starts with the length of its key (written last, so that torn records are ignored), then the length
+     * of its value, or -1 for removals.
+     */
+    private static final int HEADER_SIZE = 8;
+
+    private static final int TOMBSTONE = -1;
+
+    private final Path file;
+
+    private final int initialSize;
+
+    private FileChannel channel;
+
+    private MappedByteBuffer buffer;
+
+    private Map<String, Integer> index = new HashMap<>();
+
+    private int end;
+
+    private int garbage;
+
+    private boolean dirty;
+
+    private StateStore(Path file, int initialSize) throws IOException {
+        this.file = file;
+        this.initialSize = initialSize;
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(channel.size(), initialSize));
+        replay();
+    }
+
+    /**
+     * Opens the store backed by the given file, creating it with the given size if it doesn't exist.
+     */
+    public static StateStore open(Path file, int initialSize) throws IOException {
+        return new StateStore(file, initialSize);
+    }
+
+    private void replay() {
+        int position = 0;
+        while (position + HEADER_SIZE <= buffer.capacity()) {
+            int keyLength = buffer.getInt(position);
+            if (keyLength <= 0) {
+                break;
+            }
+            int valueLength = buffer.getInt(position + Integer.BYTES);
+            int length = recordLength(keyLength, valueLength);
+            if (position + length > buffer.capacity()) {
+                break;
+            }
+            String key = readKey(position, keyLength);
+            Integer previous = valueLength == TOMBSTONE ? index.remove(key) : index.put(key, position);
+            if (previous != null) {
+                garbage += recordLength(previous);
+            }
+            if (valueLength == TOMBSTONE) {
+                garbage += length;
+            }
+            position += length;
+        }
+        end = position;
+    }
+
+    @Override
+    public synchronized byte[] get(Object key) {
+        Integer position = index.get(key);
+        return position == null ? null : readValue(position);
+    }
+
+    @Override
+    public synchronized boolean containsKey(Object key) {
+        return index.containsKey(key);
+    }
+
+    @Override
+    public synchronized int size() {
+        return index.size();
+    }
+
+    @Override
+    public synchronized byte[] put(String key, byte[] value) {
+        Objects.requireNonNull(value);
+        byte[] previous = get(key);
+        int position = append(key.getBytes(StandardCharsets.UTF_8), value);
+        Integer superseded = index.put(key, position);
+        if (superseded != null) {
+            garbage += recordLength(superseded);
+        }
+        return previous;
+    }
+
+    @Override
+    public synchronized byte[] remove(Object key) {
+        byte[] previous = get(key);
+        if (previous != null) {
+            int position = append(((String) key).getBytes(StandardCharsets.UTF_8), null);
+            garbage += recordLength(index.remove(key)) + recordLength(position);
+        }
+        return previous;
+    }
+
+    @Override
+    public synchronized byte[] putIfAbsent(String key, byte[] value) {
+        byte[] current = get(key);
+        return current == null ? put(key, value) : current;
+    }
+
+    @Override
+    public synchronized boolean remove(Object key, Object value) {
+        if (value instanceof byte[] && Arrays.equals(get(key), (byte[]) value)) {
+            remove(key);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public synchronized boolean replace(String key, byte[] oldValue, byte[] newValue) {
+        if (Arrays.equals(get(key), oldValue) && oldValue != null) {
+            put(key, newValue);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public synchronized byte[] replace(String key, byte[] value) {
+        return containsKey(key) ? put(key, value) : null;
+    }
+
+    @Override
+    public synchronized void clear() {
+        index.clear();
+        garbage = end;
+        compact(0);
+    }
+
+    /**
+     * Returns a copy of the entries of the store.
+     */
+    @Override
+    public synchronized Set<Entry<String, byte[]>> entrySet() {
+        Map<String, byte[]> copy = new LinkedHashMap<>();
+        index.forEach((key, position) -> copy.put(key, readValue(position)));
+        return copy.entrySet();
+    }
+
+    /**
+     * Makes the writes performed so far durable, compacting the file first if mostly made of superseded records.
+     */
+    public synchronized void flush() {
+        if (garbage > end / 2) {
+            compact(0);
+        } else if (dirty) {
+            buffer.force();
+        }
+        dirty = false;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        flush();
+        channel.close();
+    }
+
+    /**
+     * Appends a record for the given key, removing it if the value is null. Returns the position of the record.
+     */
+    private int append(byte[] key, byte[] value) {
+        int length = recordLength(key.length, value == null ? TOMBSTONE : value.length);
+        if ((long) end + length > buffer.capacity()) {
+            compact(length);
+        }
+        int position = end;
+        buffer.putInt(position + Integer.BYTES, value == null ? TOMBSTONE : value.length);
+        buffer.position(position + HEADER_SIZE);
+        buffer.put(key);
+        if (value != null) {
+            buffer.put(value);
+        }
+        buffer.putInt(position, key.length);
+        end = position + length;
+        dirty = true;
+        return position;
+    }
+
+    /**
+     * Rewrites the live records to a new file, with room for at least {@code extra} more bytes.
+     */
+    private void compact(int extra) {
+        long live = (long) end - garbage;
+        long size = Math.max(initialSize, live + extra > buffer.capacity() / 2 ? 2 * (live + extra) : buffer.capacity());
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalStateException("State store " + file + " is full");
+        }
+        Path compacted = file.resolveSibling(file.getFileName() + ".compacting");
+        try {
+            FileChannel newChannel = FileChannel.open(compacted, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            MappedByteBuffer newBuffer = newChannel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            Map<String, Integer> newIndex = new HashMap<>();
+            for (Map.Entry<String, Integer> entry : index.entrySet()) {
+                int position = entry.getValue();
+                ByteBuffer record = buffer.duplicate();
+                record.limit(position + recordLength(position)).position(position);
+                newIndex.put(entry.getKey(), newBuffer.position());
+                newBuffer.put(record);
+            }
+            newBuffer.force();
+            Files.move(compacted, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            // the previous mapping is released once garbage collected
+            channel.close();
+            channel = newChannel;
+            buffer = newBuffer;
+            index = newIndex;
+            end = newBuffer.position();
+            garbage = 0;
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not compact state store " + file, e);
+        }
+    }
+
+    private int recordLength(int position) {
+        return recordLength(buffer.getInt(position), buffer.getInt(position + Integer.BYTES));
+    }
+
+    private static int recordLength(int keyLength, int valueLength) {
+        return HEADER_SIZE + keyLength + Math.max(valueLength, 0);
+    }
+
+    private String readKey(int position, int keyLength) {
+        byte[] key = new byte[keyLength];
+        ByteBuffer record = buffer.duplicate();
+        record.position(position + HEADER_SIZE);
+        record.get(key);
+        return new String(key, StandardCharsets.UTF_8);
+    }
+
+    private byte[] readValue(int position) {
+        int keyLength = buffer.getInt(position);
+        byte[] value = new byte[buffer.getInt(position + Integer.BYTES)];
+        ByteBuffer record = buffer.duplicate();
+        record.position(position + HEADER_SIZE + keyLength);
+        record.get(value);
+        return value;
+    }
+}
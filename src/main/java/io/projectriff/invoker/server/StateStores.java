@@ -0,0 +1,79 @@
+package io.projectriff.invoker.server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Opens a {@link StateStore} per function, in a common directory, and flushes them periodically.
+ */
+public class StateStores implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(StateStores.class);
+
+    private final Path directory;
+
+    private final int initialSize;
+
+    private final ConcurrentMap<String, StateStore> stores = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "riff-state-flusher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * @param initialSize   the initial size of the file of each store, in bytes
+     * @param flushInterval how often to make the writes durable
+     */
+    public StateStores(Path directory, int initialSize, Duration flushInterval) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.initialSize = initialSize;
+        flusher.scheduleWithFixedDelay(this::flush, flushInterval.toMillis(), flushInterval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns the store of the given function, opening it if needed.
+     */
+    StateStore get(String functionName) {
+        return stores.computeIfAbsent(String.valueOf(functionName), name -> {
+            try {
+                return StateStore.open(directory.resolve(URLEncoder.encode(name, StandardCharsets.UTF_8) + ".state"), initialSize);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    private void flush() {
+        stores.forEach((name, store) -> {
+            try {
+                store.flush();
+            } catch (RuntimeException e) {
+                logger.warn("Could not flush state of function '{}'", name, e);
+            }
+        });
+    }
+
+    @Override
+    public void close() throws IOException {
+        flusher.shutdownNow();
+        for (StateStore store : stores.values()) {
+            store.close();
+        }
+    }
+}
@@ -8,6 +8,7 @@ import io.grpc.StatusRuntimeException;
 import io.projectriff.invoker.client.FunctionClient;
 import org.junit.*;
 import org.junit.rules.TestName;
+import org.reactivestreams.Publisher;
 import org.springframework.messaging.Message;
 import org.springframework.messaging.converter.MappingJackson2MessageConverter;
 import org.springframework.messaging.support.MessageBuilder;
@@ -290,6 +291,32 @@ public class IntegrationTest {
 
     }
 
+    /*
+     * This tests the array based client API against a multi i/o function.
+     */
+    @Test
+    public void testArrayClient() throws Exception {
+        setFunctionLocation("repeater-as-bean-1.0.0-boot");
+        setFunctionDefinition("fn");
+        process = processBuilder.start();
+
+        FunctionClient<Publisher<?>[], Flux<?>[]> fn = FunctionClient.ofArray(connect(), Double.class, String.class);
+
+        Flux<?>[] response = fn.apply(new Publisher<?>[]{
+                Flux.just("a", "bb", "ccc"),
+                Flux.just(1, 2, 3)
+        });
+        StepVerifier.create((Flux<Double>) response[0])
+                .expectNext(1.5d, 2.5d, 3.0d)
+                .verifyComplete();
+        StepVerifier.create((Flux<String>) response[1])
+                .expectNext("a")
+                .expectNext("bb", "bb")
+                .expectNext("ccc", "ccc", "ccc")
+                .verifyComplete();
+
+    }
+
     /*
      * This tests the client triggering an onError() event.
      */
@@ -0,0 +1,233 @@
+package io.projectriff.invoker;
+
+import com.sun.management.ThreadMXBean;
+import io.projectriff.invoker.loadgen.LoadGenerator;
+import io.projectriff.invoker.loadgen.LoadReport;
+import io.projectriff.invoker.loadgen.LocalInvoker;
+import org.assertj.core.api.SoftAssertions;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.boot.convert.DurationStyle;
+
+import javax.management.remote.JMXConnector;
+import javax.management.remote.JMXConnectorFactory;
+import javax.management.remote.JMXServiceURL;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Performance regression tests for the invoker. Drives the sample functions through an invoker started as a separate
+ * java process (see {@link LocalInvoker}) at a fixed load, checking p99 latency and bytes allocated per input frame, then
+ * as fast as it completes invocations, checking throughput, against the baseline stored in {@code src/test/resources/perf-baseline.properties}. Requires that the
+ * invoker be built as a boot uberjar first, and the sample functions be built from {@code src/test/functions-sources},
+ * both done by {@code mvn -Pperf verify}.
+ *
+ * <p>Results are written to {@code target/perf-results.properties}, and replace the baseline when running with
+ * {@code -Dperf.baseline.update=true}. Results regressing by more than {@code perf.tolerance} (a ratio, 0.25 by default)
+ * fail the build, while results without a baseline are only reported.</p>
+ */
+public class SampleFunctionsPerfTest {
+
+    private static final int PORT = 8081;
+
+    private static final int JMX_PORT = 9010;
+
+    private static final Path BASELINE = Paths.get("src/test/resources/perf-baseline.properties");
+
+    private static final Path RESULTS = Paths.get("target/perf-results.properties");
+
+    private static final double TOLERANCE = Double.parseDouble(System.getProperty("perf.tolerance", "0.25"));
+
+    private static final boolean UPDATE_BASELINE = Boolean.getBoolean("perf.baseline.update");
+
+    private static final Duration WARMUP = DurationStyle.detectAndParse(System.getProperty("perf.warmup", "20s"));
+
+    private static final Duration DURATION = DurationStyle.detectAndParse(System.getProperty("perf.duration", "30s"));
+
+    private static final Properties baseline = new Properties();
+
+    private static final Properties results = new Properties();
+
+    @BeforeClass
+    public static void loadBaseline() throws IOException {
+        if (Files.exists(BASELINE)) {
+            try (Reader reader = Files.newBufferedReader(BASELINE)) {
+                baseline.load(reader);
+            }
+        }
+    }
+
+    @AfterClass
+    public static void storeResults() throws IOException {
+        try (Writer writer = Files.newBufferedWriter(RESULTS)) {
+            results.store(writer, "Results of " + SampleFunctionsPerfTest.class.getSimpleName());
+        }
+        if (UPDATE_BASELINE && !results.isEmpty()) {
+            baseline.putAll(results);
+            try (Writer writer = Files.newBufferedWriter(BASELINE)) {
+                baseline.store(writer, "Baseline of " + SampleFunctionsPerfTest.class.getSimpleName()
+                        + ", update with -Dperf.baseline.update=true");
+            }
+        }
+    }
+
+    /*
+     * A request/reply function, one frame per invocation.
+     */
+    @Test
+    public void testHundredDivider() throws Exception {
+        LoadGenerator load = new LoadGenerator();
+        load.setRate(500);
+        load.setPayload("ints:1:100");
+
+        measure("hundred-divider", load, "hundred-divider-1.0.0", "--spring.cloud.function.function-class=com.acme.HundredDivider");
+    }
+
+    /*
+     * A streaming function, long runs of frames per invocation.
+     */
+    @Test
+    public void testEncode() throws Exception {
+        LoadGenerator load = new LoadGenerator();
+        load.setRate(100);
+        load.setFrames(50);
+        load.setPayload("ints:0:1");
+
+        measure("encode", load, "encode-1.0.0-boot", "--spring.cloud.function.function-class=com.acme.Encode");
+    }
+
+    /*
+     * A streaming function with several inputs and outputs.
+     */
+    @Test
+    public void testRepeater() throws Exception {
+        LoadGenerator load = new LoadGenerator();
+        load.setRate(100);
+        load.setFrames(10);
+        load.setArity(2, 2);
+        load.setPayload("text:3:10", "ints:1:3");
+
+        measure("repeater", load, "repeater-1.0.0-boot", "--spring.cloud.function.function-class=com.acme.Repeater");
+    }
+
+    /*
+     * A request/reply function converting JSON pojos.
+     */
+    @Test
+    public void testCustomJsonPojos() throws Exception {
+        LoadGenerator load = new LoadGenerator();
+        load.setRate(300);
+        load.setPayload("replay:" + new File("src/test/resources/perf/persons.jsonl").getAbsolutePath());
+
+        measure("custom-json-pojos", load, "custom-json-pojos-1.0.0-boot");
+    }
+
+    private void measure(String scenario, LoadGenerator load, String jar, String... arguments) throws Exception {
+        // prefer the jar built by the perf profile over the one checked in, if any
+        File location = new File(String.format("src/test/functions-sources/%s/target/%s.jar", scenario, jar));
+        if (!location.exists()) {
+            location = new File(String.format("src/test/functions/%s.jar", jar));
+        }
+        assertThat(location).as("jar of %s, built from src/test/functions-sources", scenario).exists();
+
+        List<String> invokerArgs = new ArrayList<>();
+        invokerArgs.add("--spring.cloud.function.location=" + location.getAbsolutePath());
+        invokerArgs.addAll(Arrays.asList(arguments));
+        List<String> jvmArgs = Arrays.asList(
+                "-Xms512m",
+                "-Xmx512m",
+                "-Dcom.sun.management.jmxremote.port=" + JMX_PORT,
+                "-Dcom.sun.management.jmxremote.rmi.port=" + JMX_PORT,
+                "-Dcom.sun.management.jmxremote.authenticate=false",
+                "-Dcom.sun.management.jmxremote.ssl=false",
+                "-Djava.rmi.server.hostname=localhost"
+        );
+
+        LoadReport report;
+        LoadReport saturated;
+        long allocated;
+        try (LocalInvoker invoker = new LocalInvoker(PORT, invokerArgs, jvmArgs)) {
+            invoker.awaitStarted();
+            load.setTarget("localhost", PORT);
+            // a first run brings the invoker to its steady state (JIT compilation, pools, caches)
+            load.setDuration(Duration.ZERO, WARMUP);
+            load.run();
+
+            JMXServiceURL url = new JMXServiceURL(String.format("service:jmx:rmi:///jndi/rmi://localhost:%d/jmxrmi", JMX_PORT));
+            try (JMXConnector jmx = JMXConnectorFactory.connect(url)) {
+                ThreadMXBean threads = ManagementFactory.newPlatformMXBeanProxy(jmx.getMBeanServerConnection(),
+                        ManagementFactory.THREAD_MXBEAN_NAME, ThreadMXBean.class);
+                Map<Long, Long> before = allocatedBytes(threads);
+                load.setDuration(Duration.ZERO, DURATION);
+                report = load.run();
+                allocated = allocatedBytes(threads).entrySet().stream()
+                        .mapToLong(e -> e.getValue() - before.getOrDefault(e.getKey(), 0L))
+                        .sum();
+            }
+            // the fixed rate run completes as many invocations as it starts, throughput is measured at saturation
+            load.setRate(0);
+            saturated = load.run();
+        }
+        report.print(System.out);
+        saturated.print(System.out);
+        assertThat(report.getErrors()).as("errors of %s", scenario).isEmpty();
+        assertThat(saturated.getErrors()).as("errors of %s at saturation", scenario).isEmpty();
+
+        SoftAssertions softly = new SoftAssertions();
+        check(softly, scenario + ".throughput", saturated.getThroughput(), true);
+        check(softly, scenario + ".p99-micros", report.getLatencyPercentile(99.0), false);
+        check(softly, scenario + ".allocated-bytes-per-frame", (double) allocated / report.getFrames(), false);
+        softly.assertAll();
+    }
+
+    /**
+     * Returns the bytes allocated so far by each live thread of the invoker. Threads that terminate during a run are
+     * not accounted for, which makes the allocation measured a lower bound.
+     */
+    private static Map<Long, Long> allocatedBytes(ThreadMXBean threads) {
+        long[] ids = threads.getAllThreadIds();
+        long[] bytes = threads.getThreadAllocatedBytes(ids);
+        Map<Long, Long> allocated = new HashMap<>();
+        for (int i = 0; i < ids.length; i++) {
+            if (bytes[i] >= 0) {
+                allocated.put(ids[i], bytes[i]);
+            }
+        }
+        return allocated;
+    }
+
+    private static void check(SoftAssertions softly, String key, double value, boolean higherIsBetter) {
+        results.setProperty(key, String.format(Locale.ROOT, "%.1f", value));
+        if (UPDATE_BASELINE) {
+            return;
+        }
+        String reference = baseline.getProperty(key);
+        if (reference == null) {
+            System.out.printf("No baseline for %s, record it with -Dperf.baseline.update=true%n", key);
+            return;
+        }
+        double expected = Double.parseDouble(reference);
+        if (higherIsBetter) {
+            softly.assertThat(value).as("%s (baseline %s)", key, reference).isGreaterThanOrEqualTo(expected * (1 - TOLERANCE));
+        } else {
+            softly.assertThat(value).as("%s (baseline %s)", key, reference).isLessThanOrEqualTo(expected * (1 + TOLERANCE));
+        }
+    }
+}
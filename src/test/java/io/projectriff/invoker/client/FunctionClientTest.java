@@ -0,0 +1,61 @@
+package io.projectriff.invoker.client;
+
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.projectriff.invoker.server.GrpcServerAdapter;
+import org.junit.Test;
+import org.springframework.cloud.function.context.FunctionRegistration;
+import org.springframework.cloud.function.context.FunctionType;
+import org.springframework.cloud.function.context.catalog.SimpleFunctionRegistry;
+import org.springframework.core.convert.support.DefaultConversionService;
+import org.springframework.messaging.converter.CompositeMessageConverter;
+import org.springframework.messaging.converter.StringMessageConverter;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.function.Function;
+
+/**
+ * Unit tests for {@link FunctionClient}.
+ */
+public class FunctionClientTest {
+
+    @Test
+    public void testAdapterIsInvokedDirectly() {
+        FunctionClient<Flux<String>, Flux<String>> client = FunctionClient.of(adapter(), String.class);
+        client.setMessageConverters(new StringMessageConverter());
+
+        StepVerifier.create(client.apply(Flux.just("a", "b")))
+                .expectNext("A", "B")
+                .verifyComplete();
+    }
+
+    @Test
+    public void testAdapterIsInvokedInProcess() throws IOException {
+        Server server = InProcessServerBuilder.forName("riff-test").addService(adapter()).build().start();
+        ManagedChannel channel = InProcessChannelBuilder.forName("riff-test").build();
+        try {
+            FunctionClient<Flux<String>, Flux<String>> client = FunctionClient.of(channel, String.class);
+            client.setMessageConverters(new StringMessageConverter());
+
+            StepVerifier.create(client.apply(Flux.just("a", "b")))
+                    .expectNext("A", "B")
+                    .verifyComplete();
+        } finally {
+            channel.shutdownNow();
+            server.shutdownNow();
+        }
+    }
+
+    private GrpcServerAdapter adapter() {
+        SimpleFunctionRegistry catalog = new SimpleFunctionRegistry(new DefaultConversionService(),
+                new CompositeMessageConverter(Collections.singletonList(new StringMessageConverter())));
+        Function<String, String> upper = String::toUpperCase;
+        catalog.register(new FunctionRegistration<>(upper, "fn").type(FunctionType.from(String.class).to(String.class)));
+        return new GrpcServerAdapter(catalog, "fn");
+    }
+}
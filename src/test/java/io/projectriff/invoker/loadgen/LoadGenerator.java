@@ -0,0 +1,336 @@
+package io.projectriff.invoker.loadgen;
+
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.Status;
+import io.projectriff.invoker.client.FunctionClient;
+import org.HdrHistogram.Recorder;
+import org.reactivestreams.Publisher;
+import org.springframework.boot.convert.DurationStyle;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * Drives an invoker with an open-loop arrival rate of invocations, using {@link FunctionClient}.
+ *
+ * <p>Invocations are started at a fixed rate over a number of connections, each allowing a maximum number of concurrent
+ * streams (ie invocations in flight). Each invocation sends a number of frames on each of the input arguments of the
+ * function, and completes once all its results have completed. Its latency is measured from the time it was
+ * <em>intended</em> to start, rather than from when it actually started: when the invoker can't keep up and all streams
+ * are busy, the time invocations spend waiting to start is accounted for, correcting for coordinated omission.</p>
+ *
+ * <p>With a rate of 0, the load is closed-loop instead: invocations start as soon as a stream is free, which measures
+ * the throughput of the invoker at saturation (latencies are then measured from the actual start).</p>
+ *
+ * <p>Run with {@code mvn -Ploadgen verify -DskipTests -Dloadgen.args="..."}, see {@link #main(String[])}.</p>
+ */
+public class LoadGenerator {
+
+    /**
+     * The error reported for invocations still in flight well past their timeout when the run ends.
+     */
+    static final String TIMED_OUT = "TIMED_OUT";
+
+    private String host = "localhost";
+
+    private int port = 8081;
+
+    private int connections = 1;
+
+    private int streams = 16;
+
+    private double rate = 100;
+
+    private int frames = 1;
+
+    private int arity = 1;
+
+    private int outputs = 1;
+
+    private List<Supplier<Object>> payloads = Collections.singletonList(Payloads.parse("ints:1:100"));
+
+    private Duration warmup = Duration.ofSeconds(5);
+
+    private Duration duration = Duration.ofSeconds(30);
+
+    private Duration timeout = Duration.ofSeconds(10);
+
+    private String functionName;
+
+    /**
+     * Runs a load test and prints its report. Arguments are of the form {@code --name=value}:
+     * <ul>
+     *     <li>{@code --host}, {@code --port}: the invoker to drive, {@code localhost:8081} by default,</li>
+     *     <li>{@code --connections}: the number of connections (1),</li>
+     *     <li>{@code --streams}: the maximum number of concurrent invocations per connection (16),</li>
+     *     <li>{@code --rate}: the number of invocations started per second, or 0 to start them as soon as a stream is
+     *     free (100),</li>
+     *     <li>{@code --frames}: the number of frames sent per input argument by each invocation (1),</li>
+     *     <li>{@code --arity}, {@code --outputs}: the number of inputs and outputs of the function (1),</li>
+     *     <li>{@code --payload}: the payloads sent, see {@link Payloads#parse(String)} ({@code ints:1:100}), either one
+     *     specification for all input arguments, or one per argument separated by commas,</li>
+     *     <li>{@code --warmup}, {@code --duration}: how long to run before, then while measuring (5s, 30s),</li>
+     *     <li>{@code --timeout}: the time after which an invocation is failed (10s),</li>
+     *     <li>{@code --function-name}: the function to invoke, for invokers hosting several.</li>
+     * </ul>
+     * If any {@code --spring.*} or {@code --riff.*} argument is given, an invoker is started locally with those arguments
+     * (eg {@code --spring.cloud.function.location=src/test/functions/hundred-divider-1.0.0.jar
+     * --spring.cloud.function.function-class=com.acme.HundredDivider}), listening on the given port, for the duration
+     * of the run. JVM options of that invoker can be given with {@code --jvm=...}, once per option.
+     */
+    public static void main(String[] args) throws Exception {
+        LoadGenerator generator = new LoadGenerator();
+        List<String> invokerArgs = new ArrayList<>();
+        List<String> jvmArgs = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.startsWith("--spring.") || arg.startsWith("--riff.")) {
+                invokerArgs.add(arg);
+                continue;
+            }
+            String[] option = arg.replaceFirst("^--", "").split("=", 2);
+            if (option.length != 2) {
+                throw new IllegalArgumentException("Expected --name=value, got " + arg);
+            }
+            if (option[0].equals("jvm")) {
+                jvmArgs.add(option[1]);
+            } else {
+                generator.set(option[0], option[1]);
+            }
+        }
+
+        LoadReport report;
+        if (invokerArgs.isEmpty()) {
+            report = generator.run();
+        } else {
+            try (LocalInvoker invoker = new LocalInvoker(generator.port, invokerArgs, jvmArgs)) {
+                invoker.awaitStarted();
+                report = generator.run();
+            }
+        }
+        report.print(System.out);
+    }
+
+    private void set(String name, String value) {
+        switch (name) {
+            case "host":
+                host = value;
+                break;
+            case "port":
+                port = Integer.parseInt(value);
+                break;
+            case "connections":
+                connections = Integer.parseInt(value);
+                break;
+            case "streams":
+                streams = Integer.parseInt(value);
+                break;
+            case "rate":
+                rate = Double.parseDouble(value);
+                break;
+            case "frames":
+                frames = Integer.parseInt(value);
+                break;
+            case "arity":
+                arity = Integer.parseInt(value);
+                break;
+            case "outputs":
+                outputs = Integer.parseInt(value);
+                break;
+            case "payload":
+                setPayload(value.split(","));
+                break;
+            case "warmup":
+                warmup = DurationStyle.detectAndParse(value);
+                break;
+            case "duration":
+                duration = DurationStyle.detectAndParse(value);
+                break;
+            case "timeout":
+                timeout = DurationStyle.detectAndParse(value);
+                break;
+            case "function-name":
+                functionName = value;
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown option --" + name);
+        }
+    }
+
+    public void setTarget(String host, int port) {
+        this.host = host;
+        this.port = port;
+    }
+
+    public void setConnections(int connections, int streams) {
+        this.connections = connections;
+        this.streams = streams;
+    }
+
+    public void setRate(double rate) {
+        this.rate = rate;
+    }
+
+    public void setFrames(int frames) {
+        this.frames = frames;
+    }
+
+    public void setArity(int arity, int outputs) {
+        this.arity = arity;
+        this.outputs = outputs;
+    }
+
+    /**
+     * Sets the payloads sent on input arguments, either one specification for all of them, or one per argument.
+     */
+    public void setPayload(String... specs) {
+        List<Supplier<Object>> payloads = new ArrayList<>();
+        for (String spec : specs) {
+            payloads.add(Payloads.parse(spec));
+        }
+        this.payloads = payloads;
+    }
+
+    public void setDuration(Duration warmup, Duration duration) {
+        this.warmup = warmup;
+        this.duration = duration;
+    }
+
+    public void setFunctionName(String functionName) {
+        this.functionName = functionName;
+    }
+
+    /**
+     * Runs the load, returning once all the invocations it started have completed.
+     */
+    public LoadReport run() throws InterruptedException {
+        if (payloads.size() != 1 && payloads.size() != arity) {
+            throw new IllegalStateException(String.format("Expected 1 or %d payload specifications, got %d", arity, payloads.size()));
+        }
+        List<ManagedChannel> channels = new ArrayList<>();
+        List<FunctionClient<Publisher<?>[], Flux<?>[]>> clients = new ArrayList<>();
+        Class<?>[] outputTypes = new Class<?>[outputs];
+        Arrays.fill(outputTypes, Object.class);
+        for (int i = 0; i < connections; i++) {
+            ManagedChannel channel = ManagedChannelBuilder.forAddress(host, port).usePlaintext().build();
+            FunctionClient<Publisher<?>[], Flux<?>[]> client = FunctionClient.ofArray(channel, outputTypes);
+            if (functionName != null) {
+                client.setFunctionName(functionName);
+            }
+            channels.add(channel);
+            clients.add(client);
+        }
+        Semaphore[] slots = new Semaphore[connections];
+        for (int i = 0; i < connections; i++) {
+            slots[i] = new Semaphore(streams);
+        }
+
+        Run run = new Run();
+        boolean closedLoop = rate <= 0;
+        long periodNanos = closedLoop ? 0L : (long) (1e9 / rate);
+        long start = System.nanoTime();
+        long measureStart = start + warmup.toNanos();
+        long end = measureStart + duration.toNanos();
+        Map<String, Long> errors = new TreeMap<>();
+        try {
+            for (long i = 0; ; i++) {
+                int connection = (int) (i % connections);
+                long intendedStart;
+                if (closedLoop) {
+                    slots[connection].acquire();
+                    intendedStart = System.nanoTime();
+                    if (intendedStart >= end) {
+                        slots[connection].release();
+                        break;
+                    }
+                } else {
+                    intendedStart = start + i * periodNanos;
+                    if (intendedStart >= end) {
+                        break;
+                    }
+                    sleepUntil(intendedStart);
+                    slots[connection].acquire();
+                }
+                invoke(clients.get(connection), intendedStart, intendedStart >= measureStart, run, slots[connection]);
+            }
+            long unreleased = 0;
+            for (Semaphore slot : slots) {
+                if (!slot.tryAcquire(streams, timeout.toMillis() + 1000, TimeUnit.MILLISECONDS)) {
+                    unreleased += streams - slot.availablePermits();
+                }
+            }
+            // errors are collected before the channels shut down, which fails the invocations still in flight
+            run.errors.forEach((code, count) -> errors.put(code, count.sum()));
+            if (unreleased > 0) {
+                errors.merge(TIMED_OUT, unreleased, Long::sum);
+            }
+        } finally {
+            for (ManagedChannel channel : channels) {
+                channel.shutdownNow();
+            }
+        }
+        return new LoadReport(run.latencies.getIntervalHistogram(), run.completed.sum(), errors, run.frames.sum(), duration);
+    }
+
+    private void invoke(FunctionClient<Publisher<?>[], Flux<?>[]> client, long intendedStart, boolean measured, Run run,
+                        Semaphore slot) {
+        Publisher<?>[] args = new Publisher<?>[arity];
+        for (int a = 0; a < arity; a++) {
+            Supplier<Object> argPayloads = payloads.get(payloads.size() == 1 ? 0 : a);
+            List<Object> values = new ArrayList<>(frames);
+            for (int f = 0; f < frames; f++) {
+                values.add(argPayloads.get());
+            }
+            args[a] = Flux.fromIterable(values);
+        }
+        Flux.defer(() -> Flux.merge(client.apply(args)))
+                .then()
+                .timeout(timeout)
+                .doFinally(signal -> slot.release())
+                .subscribe(null, error -> {
+                    if (measured) {
+                        run.errors.computeIfAbsent(Status.fromThrowable(error).getCode().name(), code -> new LongAdder()).increment();
+                    }
+                }, () -> {
+                    if (measured) {
+                        run.latencies.recordValue(Math.max(1L, (System.nanoTime() - intendedStart) / 1000));
+                        run.completed.increment();
+                        run.frames.add((long) frames * arity);
+                    }
+                });
+    }
+
+    private static void sleepUntil(long deadline) {
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remaining);
+        }
+    }
+
+    /**
+     * What is recorded during a run, from the threads completing invocations.
+     */
+    private static class Run {
+
+        private final Recorder latencies = new Recorder(3);
+
+        private final LongAdder completed = new LongAdder();
+
+        private final LongAdder frames = new LongAdder();
+
+        private final ConcurrentMap<String, LongAdder> errors = new ConcurrentHashMap<>();
+    }
+}
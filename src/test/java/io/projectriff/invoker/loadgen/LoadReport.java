@@ -0,0 +1,81 @@
+package io.projectriff.invoker.loadgen;
+
+import org.HdrHistogram.Histogram;
+
+import java.io.PrintStream;
+import java.time.Duration;
+import java.util.Map;
+
+/**
+ * The outcome of a load run: latencies of invocations, measured from their intended start time, throughput and errors.
+ */
+public class LoadReport {
+
+    private final Histogram latencies;
+
+    private final long completed;
+
+    private final Map<String, Long> errors;
+
+    private final long frames;
+
+    private final Duration duration;
+
+    LoadReport(Histogram latencies, long completed, Map<String, Long> errors, long frames, Duration duration) {
+        this.latencies = latencies;
+        this.completed = completed;
+        this.errors = errors;
+        this.frames = frames;
+        this.duration = duration;
+    }
+
+    /**
+     * Returns the latency of invocations at the given percentile (eg 99.0), in microseconds.
+     */
+    public long getLatencyPercentile(double percentile) {
+        return latencies.getValueAtPercentile(percentile);
+    }
+
+    /**
+     * Returns the number of invocations completed successfully per second.
+     */
+    public double getThroughput() {
+        return completed / (duration.toNanos() / 1e9);
+    }
+
+    /**
+     * Returns the number of input frames sent per second, by invocations completed successfully.
+     */
+    public double getFrameThroughput() {
+        return frames / (duration.toNanos() / 1e9);
+    }
+
+    /**
+     * Returns the proportion of invocations that failed.
+     */
+    public double getErrorRate() {
+        long failed = errors.values().stream().mapToLong(Long::longValue).sum();
+        return failed == 0 ? 0.0 : (double) failed / (failed + completed);
+    }
+
+    /**
+     * Returns the number of input frames sent by invocations completed successfully.
+     */
+    public long getFrames() {
+        return frames;
+    }
+
+    public Map<String, Long> getErrors() {
+        return errors;
+    }
+
+    public void print(PrintStream out) {
+        out.printf("Duration:     %s%n", duration);
+        out.printf("Invocations:  %d completed, %.1f/s%n", completed, getThroughput());
+        out.printf("Frames:       %.1f/s%n", getFrameThroughput());
+        out.printf("Error rate:   %.4f%% %s%n", 100 * getErrorRate(), errors.isEmpty() ? "" : errors);
+        out.printf("Latency (ms): p50=%.3f p90=%.3f p99=%.3f p99.9=%.3f max=%.3f%n",
+                getLatencyPercentile(50) / 1000.0, getLatencyPercentile(90) / 1000.0, getLatencyPercentile(99) / 1000.0,
+                getLatencyPercentile(99.9) / 1000.0, latencies.getMaxValue() / 1000.0);
+    }
+}
@@ -0,0 +1,81 @@
+package io.projectriff.invoker.loadgen;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An invoker started as a separate java process from the boot uberjar in {@code target/}, the way it is meant to be
+ * run, listening on localhost. Requires that the invoker be built first (eg using {@code mvn package}).
+ */
+public class LocalInvoker implements AutoCloseable {
+
+    private final Process process;
+
+    private final int port;
+
+    /**
+     * @param port      the gRPC port of the invoker
+     * @param arguments the arguments of the invoker, eg {@code --spring.cloud.function.location=...}
+     * @param jvmArgs   additional JVM options, eg {@code -Xmx256m}
+     */
+    public LocalInvoker(int port, List<String> arguments, List<String> jvmArgs) throws IOException {
+        this.port = port;
+        List<String> command = new ArrayList<>();
+        command.add(javaExecutable());
+        command.addAll(jvmArgs);
+        command.add("-jar");
+        command.add(invokerJar());
+        command.addAll(arguments);
+        ProcessBuilder processBuilder = new ProcessBuilder(command);
+        processBuilder.environment().put("GRPC_PORT", String.valueOf(port));
+        processBuilder.redirectOutput(new File("target/loadgen-invoker.out"));
+        processBuilder.redirectError(new File("target/loadgen-invoker.err"));
+        this.process = processBuilder.start();
+    }
+
+    /**
+     * Waits for the invoker to accept connections.
+     */
+    public void awaitStarted() throws InterruptedException {
+        for (int i = 0; i < 60; i++) {
+            if (!process.isAlive()) {
+                throw new IllegalStateException("Invoker exited with status " + process.exitValue() + ", see target/loadgen-invoker.err");
+            }
+            try (Socket socket = new Socket()) {
+                socket.connect(new InetSocketAddress("localhost", port));
+                return;
+            } catch (IOException e) {
+                Thread.sleep(500);
+            }
+        }
+        throw new IllegalStateException("Invoker did not start listening on port " + port);
+    }
+
+    @Override
+    public void close() throws InterruptedException {
+        process.destroy();
+        if (!process.waitFor(10, TimeUnit.SECONDS)) {
+            process.destroyForcibly().waitFor();
+        }
+    }
+
+    private static String javaExecutable() {
+        File exec = new File(System.getProperty("java.home"), "bin/java");
+        return exec.exists() ? exec.getPath() : "java";
+    }
+
+    private static String invokerJar() {
+        String[] targets = new File("target")
+                .list((d, n) -> n.matches("java-function-invoker-\\d+\\.\\d+\\.\\d+(-SNAPSHOT)?\\.jar"));
+        if (targets == null || targets.length != 1) {
+            throw new IllegalStateException("Could not locate java invoker jar in " + (targets == null ? "[]" : Arrays.asList(targets)));
+        }
+        return String.format("target%s%s", File.separator, targets[0]);
+    }
+}
@@ -0,0 +1,81 @@
+package io.projectriff.invoker.loadgen;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Sources of input payloads, generated from a distribution or replayed from a capture.
+ */
+final class Payloads {
+
+    private Payloads() {
+    }
+
+    /**
+     * Parses a payload specification:
+     * <ul>
+     *     <li>{@code ints:MIN:MAX}, integers uniformly distributed between MIN and MAX (inclusive),</li>
+     *     <li>{@code text:MIN:MAX}, strings of letters with a length uniformly distributed between MIN and MAX,</li>
+     *     <li>{@code replay:FILE}, the JSON values found on each line of FILE (eg captured from production), in
+     *     order, starting over once exhausted.</li>
+     * </ul>
+     */
+    static Supplier<Object> parse(String spec) {
+        String[] parts = spec.split(":", 2);
+        switch (parts[0]) {
+            case "ints": {
+                long[] range = range(parts[1]);
+                return () -> ThreadLocalRandom.current().nextLong(range[0], range[1] + 1);
+            }
+            case "text": {
+                long[] range = range(parts[1]);
+                return () -> text((int) ThreadLocalRandom.current().nextLong(range[0], range[1] + 1));
+            }
+            case "replay":
+                return replay(Path.of(parts[1]));
+            default:
+                throw new IllegalArgumentException("Unknown payload specification " + spec);
+        }
+    }
+
+    private static long[] range(String range) {
+        String[] bounds = range.split(":");
+        return new long[]{Long.parseLong(bounds[0]), Long.parseLong(bounds[1])};
+    }
+
+    private static String text(int length) {
+        StringBuilder text = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            text.append((char) ('a' + ThreadLocalRandom.current().nextInt(26)));
+        }
+        return text.toString();
+    }
+
+    private static Supplier<Object> replay(Path capture) {
+        ObjectMapper mapper = new ObjectMapper();
+        List<Object> payloads = new ArrayList<>();
+        try {
+            for (String line : Files.readAllLines(capture)) {
+                if (!line.isBlank()) {
+                    payloads.add(mapper.readValue(line, Object.class));
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (payloads.isEmpty()) {
+            throw new IllegalArgumentException("No payload found in " + capture);
+        }
+        AtomicLong next = new AtomicLong();
+        return () -> payloads.get((int) (next.getAndIncrement() % payloads.size()));
+    }
+}
@@ -0,0 +1,151 @@
+package io.projectriff.invoker.main;
+
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.ServerInterceptors;
+import io.grpc.Status;
+import io.grpc.health.v1.HealthCheckRequest;
+import io.grpc.health.v1.HealthCheckResponse.ServingStatus;
+import io.grpc.health.v1.HealthGrpc;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.projectriff.invoker.client.FunctionClient;
+import io.projectriff.invoker.server.FunctionWarmup;
+import io.projectriff.invoker.server.GrpcServerAdapter;
+import io.projectriff.invoker.server.InvokerHealth;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.cloud.function.context.FunctionRegistration;
+import org.springframework.cloud.function.context.FunctionType;
+import org.springframework.cloud.function.context.catalog.SimpleFunctionRegistry;
+import org.springframework.core.convert.support.DefaultConversionService;
+import org.springframework.messaging.converter.CompositeMessageConverter;
+import org.springframework.messaging.converter.StringMessageConverter;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.UnicastProcessor;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Unit tests for {@link InvokerServer}.
+ */
+public class InvokerServerTest {
+
+    private final InvokerHealth health = new InvokerHealth();
+
+    private SimpleFunctionRegistry catalog;
+
+    private GrpcServerAdapter adapter;
+
+    private Server server;
+
+    private ManagedChannel channel;
+
+    @Before
+    public void setUp() {
+        catalog = new SimpleFunctionRegistry(new DefaultConversionService(),
+                new CompositeMessageConverter(Collections.singletonList(new StringMessageConverter())));
+        Function<Flux<String>, Flux<String>> upper = in -> in.map(String::toUpperCase);
+        catalog.register(new FunctionRegistration<>(upper, "fn").type(FunctionType.from(String.class).to(String.class).wrap(Flux.class)));
+        adapter = new GrpcServerAdapter(catalog, "fn");
+        server = InProcessServerBuilder.forName("riff-server-test")
+                .addService(ServerInterceptors.intercept(adapter, health))
+                .addService(health.getHealthService())
+                .build();
+        channel = InProcessChannelBuilder.forName("riff-server-test").build();
+    }
+
+    @After
+    public void tearDown() {
+        channel.shutdownNow();
+        server.shutdownNow();
+    }
+
+    @Test
+    public void testServesOnlyOnceWarmedUp() {
+        CompletableFuture<ServingStatus> duringWarmup = new CompletableFuture<>();
+        FunctionWarmup warmup = new FunctionWarmup(catalog, "fn") {
+            @Override
+            public int run() {
+                duringWarmup.complete(status());
+                return super.run();
+            }
+        };
+        InvokerServer invokerServer = new InvokerServer(Collections.singletonList(server), health, warmup, Duration.ofSeconds(1));
+
+        invokerServer.start();
+
+        assertThat(duringWarmup).isCompletedWithValue(ServingStatus.NOT_SERVING);
+        assertThat(status()).isEqualTo(ServingStatus.SERVING);
+        assertThat(invokerServer.isRunning()).isTrue();
+        StepVerifier.create(client().apply(Flux.just("a")))
+                .expectNext("A")
+                .verifyComplete();
+    }
+
+    @Test
+    public void testInFlightInvocationsCompleteWhileDraining() {
+        InvokerServer invokerServer = new InvokerServer(Collections.singletonList(server), health, null, Duration.ofSeconds(10));
+        invokerServer.start();
+        UnicastProcessor<String> input = UnicastProcessor.create();
+
+        StepVerifier.create(client().apply(input))
+                .then(() -> input.onNext("a"))
+                .expectNext("A")
+                .then(() -> {
+                    CompletableFuture<Void> stopped = CompletableFuture.runAsync(invokerServer::stop);
+                    // new invocations are refused while in-flight ones drain
+                    while (!server.isShutdown()) {
+                        Thread.onSpinWait();
+                    }
+                    assertThat(health.isServing()).isFalse();
+                    input.onNext("b");
+                    input.onComplete();
+                    stopped.join();
+                })
+                .expectNext("B")
+                .verifyComplete();
+        assertThat(server.isTerminated()).isTrue();
+        assertThat(invokerServer.isRunning()).isFalse();
+    }
+
+    @Test
+    public void testInFlightInvocationsAreClosedAfterDrainTimeout() {
+        Duration drainTimeout = Duration.ofMillis(300);
+        InvokerServer invokerServer = new InvokerServer(Collections.singletonList(server), health, null, drainTimeout);
+        invokerServer.start();
+        UnicastProcessor<String> input = UnicastProcessor.create();
+
+        StepVerifier.create(client().apply(input))
+                .then(() -> input.onNext("a"))
+                .expectNext("A")
+                .then(() -> {
+                    long start = System.nanoTime();
+                    invokerServer.stop();
+                    assertThat(System.nanoTime() - start).isGreaterThanOrEqualTo(drainTimeout.toNanos());
+                })
+                .expectErrorSatisfies(e -> assertThat(Status.fromThrowable(e).getCode()).isIn(Status.Code.CANCELLED, Status.Code.UNAVAILABLE))
+                .verify(Duration.ofSeconds(5));
+        assertThat(server.isTerminated()).isTrue();
+        assertThat(invokerServer.isRunning()).isFalse();
+    }
+
+    private ServingStatus status() {
+        return HealthGrpc.newBlockingStub(channel).withDeadlineAfter(1, TimeUnit.SECONDS)
+                .check(HealthCheckRequest.getDefaultInstance()).getStatus();
+    }
+
+    private FunctionClient<Flux<String>, Flux<String>> client() {
+        FunctionClient<Flux<String>, Flux<String>> client = FunctionClient.of(channel, String.class);
+        client.setMessageConverters(new StringMessageConverter());
+        return client;
+    }
+}
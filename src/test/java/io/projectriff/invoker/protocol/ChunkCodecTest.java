@@ -0,0 +1,50 @@
+package io.projectriff.invoker.protocol;
+
+import com.google.protobuf.ByteString;
+import io.projectriff.invoker.rpc.InputFrame;
+import io.projectriff.invoker.rpc.InputSignal;
+import io.projectriff.invoker.rpc.OutputFrame;
+import io.projectriff.invoker.rpc.OutputSignal;
+import org.junit.Test;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Unit tests for {@link ChunkCodec}.
+ */
+public class ChunkCodecTest {
+
+    @Test
+    public void testOutputChunksAreReassembled() {
+        OutputFrame frame = OutputFrame.newBuilder()
+                .setContentType("text/plain")
+                .putHeaders("h", "v")
+                .setPayload(ByteString.copyFromUtf8("hello world"))
+                .build();
+        List<OutputSignal> chunks = ChunkCodec.split(frame, 4);
+
+        assertThat(chunks).hasSize(3);
+        assertThat(chunks.get(2).getData().getChunk().getLast()).isTrue();
+        assertThat(chunks.get(2).getData().getContentType()).isEmpty();
+        StepVerifier.create(ChunkCodec.assemble(Flux.fromIterable(chunks)))
+                .assertNext(signal -> assertThat(signal.getData()).isEqualTo(frame))
+                .verifyComplete();
+    }
+
+    @Test
+    public void testSmallPayloadsAreNotSplit() {
+        InputFrame frame = InputFrame.newBuilder()
+                .setArgIndex(1)
+                .setPayload(ByteString.copyFromUtf8("hello"))
+                .build();
+
+        List<InputSignal> chunks = ChunkCodec.split(frame, 5);
+
+        assertThat(chunks).hasSize(1);
+        assertThat(chunks.get(0).getData()).isEqualTo(frame);
+    }
+}
@@ -0,0 +1,79 @@
+package io.projectriff.invoker.server;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Unit tests for {@link AdaptiveConcurrencyLimiter}.
+ */
+public class AdaptiveConcurrencyLimiterTest {
+
+    @Test
+    public void testRejectsOverLimit() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(2);
+
+        AdaptiveConcurrencyLimiter.Permit first = limiter.tryAcquire();
+        AdaptiveConcurrencyLimiter.Permit second = limiter.tryAcquire();
+        assertThat(first).isNotNull();
+        assertThat(second).isNotNull();
+        assertThat(limiter.tryAcquire()).isNull();
+
+        first.releaseIgnored();
+        assertThat(limiter.tryAcquire()).isNotNull();
+    }
+
+    @Test
+    public void testDroppedInvocationsReduceLimit() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(100);
+        limiter.setMinLimit(10);
+
+        for (int i = 0; i < 100; i++) {
+            limiter.tryAcquire().releaseDropped();
+        }
+
+        assertThat(limiter.getLimit()).isEqualTo(10);
+        assertThat(limiter.getInFlight()).isEqualTo(0);
+    }
+
+    @Test
+    public void testLimitGrowsWhenUsedAndLatencyIsStable() {
+        AtomicLong clock = new AtomicLong();
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(4, clock::get);
+        limiter.setSmoothing(1.0);
+
+        runRound(limiter, clock, 10);
+        runRound(limiter, clock, 10);
+
+        assertThat(limiter.getLimit()).isGreaterThan(4);
+    }
+
+    @Test
+    public void testLimitShrinksWhenLatencyDegrades() {
+        AtomicLong clock = new AtomicLong();
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(40, clock::get);
+        limiter.setSmoothing(1.0);
+
+        runRound(limiter, clock, 10);
+        int before = limiter.getLimit();
+        runRound(limiter, clock, 100);
+
+        assertThat(limiter.getLimit()).isLessThan(before);
+    }
+
+    /**
+     * Saturates the limiter with invocations that all take the given duration.
+     */
+    private void runRound(AdaptiveConcurrencyLimiter limiter, AtomicLong clock, long duration) {
+        AdaptiveConcurrencyLimiter.Permit[] permits = new AdaptiveConcurrencyLimiter.Permit[limiter.getLimit()];
+        for (int i = 0; i < permits.length; i++) {
+            permits[i] = limiter.tryAcquire();
+        }
+        clock.addAndGet(duration);
+        for (AdaptiveConcurrencyLimiter.Permit permit : permits) {
+            permit.release();
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package io.projectriff.invoker.server;
+
+import io.grpc.Status;
+import io.grpc.StatusException;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Unit tests for {@link ErrorReporter}.
+ */
+public class ErrorReporterTest {
+
+    private final AtomicLong clock = new AtomicLong();
+
+    private final ErrorReporter reporter = new ErrorReporter(clock::get);
+
+    {
+        reporter.setBurst(2);
+        reporter.setPeriod(Duration.ofNanos(100));
+        reporter.setSampleRate(10);
+    }
+
+    @Test
+    public void testErrorsPastBurstAreSampled() {
+        for (int i = 0; i < 11; i++) {
+            reporter.report("fn", new IllegalStateException("boom"));
+        }
+        assertThat(reporter.getSuppressed(IllegalStateException.class)).isEqualTo(9);
+
+        // the 10th error past the burst is logged, reporting those suppressed so far
+        reporter.report("fn", new IllegalStateException("boom"));
+        assertThat(reporter.getSuppressed(IllegalStateException.class)).isEqualTo(0);
+    }
+
+    @Test
+    public void testErrorTypesAreLimitedIndependently() {
+        for (int i = 0; i < 5; i++) {
+            reporter.report("fn", new IllegalStateException("boom"));
+        }
+        reporter.report("fn", new IllegalArgumentException("bad"));
+
+        assertThat(reporter.getSuppressed(IllegalStateException.class)).isEqualTo(3);
+        assertThat(reporter.getSuppressed(IllegalArgumentException.class)).isEqualTo(0);
+    }
+
+    @Test
+    public void testStatusErrorsAreLimitedByCause() {
+        for (int i = 0; i < 3; i++) {
+            reporter.report("fn", Status.UNKNOWN.withCause(new IllegalStateException("boom")).asException());
+        }
+        reporter.report("fn", Status.UNKNOWN.withCause(new IllegalArgumentException("bad")).asException());
+
+        assertThat(reporter.getSuppressed(IllegalStateException.class)).isEqualTo(1);
+        assertThat(reporter.getSuppressed(IllegalArgumentException.class)).isEqualTo(0);
+        assertThat(reporter.getSuppressed(StatusException.class)).isEqualTo(0);
+    }
+
+    @Test
+    public void testCancelledInvocationsAreNotReported() {
+        for (int i = 0; i < 3; i++) {
+            reporter.report("fn", Status.CANCELLED.withDescription("client cancelled").asException());
+        }
+        assertThat(reporter.getSuppressed(StatusException.class)).isEqualTo(0);
+    }
+
+    @Test
+    public void testBurstIsRestoredEachPeriod() {
+        for (int i = 0; i < 3; i++) {
+            reporter.report("fn", new IllegalStateException("boom"));
+        }
+        assertThat(reporter.getSuppressed(IllegalStateException.class)).isEqualTo(1);
+
+        clock.addAndGet(100);
+        reporter.report("fn", new IllegalStateException("boom"));
+        assertThat(reporter.getSuppressed(IllegalStateException.class)).isEqualTo(0);
+    }
+}
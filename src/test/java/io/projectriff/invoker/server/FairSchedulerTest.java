@@ -0,0 +1,50 @@
+package io.projectriff.invoker.server;
+
+import org.junit.Test;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Unit tests for {@link FairScheduler}.
+ */
+public class FairSchedulerTest {
+
+    @Test
+    public void testQuietInvocationIsNotStarvedByHotOne() {
+        FairScheduler scheduler = new FairScheduler(1, Duration.ofMillis(1));
+        AtomicInteger hotProcessed = new AtomicInteger();
+        scheduler.schedule(Flux.range(0, 500), 0)
+                .doOnNext(i -> {
+                    busy(Duration.ofMillis(1));
+                    hotProcessed.incrementAndGet();
+                })
+                .subscribe();
+
+        Integer processedBefore = scheduler.schedule(Flux.just("ping"), 0)
+                .delaySubscription(Duration.ofMillis(20))
+                .map(ping -> hotProcessed.get())
+                .blockLast(Duration.ofSeconds(5));
+
+        assertThat(processedBefore).isLessThan(100);
+    }
+
+    @Test
+    public void testFramesOfInvocationKeepTheirOrder() {
+        FairScheduler scheduler = new FairScheduler(4, Duration.ofMillis(1));
+
+        assertThat(scheduler.schedule(Flux.range(0, 1000), 3).collectList().block(Duration.ofSeconds(5)))
+                .isSorted()
+                .hasSize(1000);
+    }
+
+    private void busy(Duration duration) {
+        long end = System.nanoTime() + duration.toNanos();
+        while (System.nanoTime() < end) {
+            Thread.onSpinWait();
+        }
+    }
+}
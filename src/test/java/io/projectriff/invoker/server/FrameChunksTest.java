@@ -0,0 +1,80 @@
+package io.projectriff.invoker.server;
+
+import com.google.protobuf.ByteString;
+import io.grpc.Status;
+import io.grpc.StatusException;
+import io.projectriff.invoker.protocol.ChunkCodec;
+import io.projectriff.invoker.rpc.InputFrame;
+import io.projectriff.invoker.rpc.InputSignal;
+import org.junit.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.support.MessageBuilder;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Unit tests for {@link FrameChunks}.
+ */
+public class FrameChunksTest {
+
+    @Test
+    public void testInputChunksAreReassembled() {
+        StepVerifier.create(FrameChunks.assemble(messages("hello world", 4), false, 1024))
+                .assertNext(m -> {
+                    Message<byte[]> message = (Message<byte[]>) m;
+                    assertThat(new String(message.getPayload(), StandardCharsets.UTF_8)).isEqualTo("hello world");
+                    assertThat(message.getHeaders().get(MessageHeaders.CONTENT_TYPE)).isEqualTo("text/plain");
+                    assertThat(message.getHeaders()).doesNotContainKeys(FrameChunks.SEQUENCE_HEADER, FrameChunks.LAST_HEADER);
+                })
+                .verifyComplete();
+    }
+
+    @Test
+    public void testReassembledPayloadsAreLimited() {
+        StepVerifier.create(FrameChunks.assemble(messages("hello world", 4), false, 8))
+                .expectErrorSatisfies(e -> assertThat(((StatusException) e).getStatus().getCode()).isEqualTo(Status.Code.RESOURCE_EXHAUSTED))
+                .verify();
+    }
+
+    @Test
+    public void testInputChunksAreStreamed() {
+        StepVerifier.create(FrameChunks.assemble(messages("hello world", 4).concatWith(messages("bye", 4)), true, 8)
+                .map(in -> read((InputStream) in)))
+                .expectNext("hello world", "bye")
+                .verifyComplete();
+    }
+
+    private Flux<Message<byte[]>> messages(String payload, int chunkSize) {
+        InputFrame frame = InputFrame.newBuilder()
+                .setContentType("text/plain")
+                .setPayload(ByteString.copyFromUtf8(payload))
+                .build();
+        return Flux.fromIterable(ChunkCodec.split(frame, chunkSize))
+                .map(InputSignal::getData)
+                .map(chunk -> {
+                    MessageBuilder<byte[]> builder = MessageBuilder.withPayload(chunk.getPayload().toByteArray())
+                            .setHeader(MessageHeaders.CONTENT_TYPE, chunk.getContentType());
+                    if (chunk.hasChunk()) {
+                        builder.setHeader(FrameChunks.SEQUENCE_HEADER, chunk.getChunk().getSequence())
+                                .setHeader(FrameChunks.LAST_HEADER, chunk.getChunk().getLast());
+                    }
+                    return builder.build();
+                });
+    }
+
+    private String read(InputStream in) {
+        try (in) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package io.projectriff.invoker.server;
+
+import org.junit.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Unit tests for {@link FrameDeduplicator}.
+ */
+public class FrameDeduplicatorTest {
+
+    @Test
+    public void testKeysAreForgottenAfterWindow() {
+        AtomicLong now = new AtomicLong();
+        FrameDeduplicator deduplicator = new FrameDeduplicator("idempotency-key", Duration.ofSeconds(8), 1000, now::get);
+
+        assertThat(deduplicator.firstSeen(42L)).isTrue();
+        assertThat(deduplicator.firstSeen(42L)).isFalse();
+        now.addAndGet(Duration.ofSeconds(4).toNanos());
+        assertThat(deduplicator.firstSeen(42L)).isFalse();
+        assertThat(deduplicator.firstSeen(0L)).isTrue();
+        now.addAndGet(Duration.ofSeconds(5).toNanos());
+        assertThat(deduplicator.firstSeen(42L)).isTrue();
+        assertThat(deduplicator.firstSeen(0L)).isFalse();
+    }
+
+    @Test
+    public void testOldestKeysAreForgottenPastMaxKeys() {
+        FrameDeduplicator deduplicator = new FrameDeduplicator("idempotency-key", Duration.ofHours(1), 8 * 100, () -> 0L);
+
+        for (long key = 1; key <= 10_000; key++) {
+            assertThat(deduplicator.firstSeen(key)).isTrue();
+        }
+        assertThat(deduplicator.firstSeen(10_000L)).isFalse();
+        assertThat(deduplicator.firstSeen(1L)).isTrue();
+    }
+
+    @Test
+    public void testForgottenKeysAreSeenAgain() {
+        FrameDeduplicator deduplicator = new FrameDeduplicator("idempotency-key", Duration.ofHours(1), 1_000_000, () -> 0L);
+
+        for (long key = 1; key <= 5_000; key++) {
+            assertThat(deduplicator.firstSeen(key)).isTrue();
+        }
+        for (long key = 1; key <= 5_000; key += 3) {
+            deduplicator.forget(key);
+        }
+        for (long key = 1; key <= 5_000; key++) {
+            assertThat(deduplicator.firstSeen(key)).as("key %d", key).isEqualTo(key % 3 == 1);
+        }
+    }
+
+    @Test
+    public void testOnlyKeysOfFramesWithoutResultAreForgotten() {
+        FrameDeduplicator deduplicator = new FrameDeduplicator("idempotency-key", Duration.ofHours(1), 1_000_000, () -> 0L);
+        FrameDeduplicator.KeyFilter filter = deduplicator.filter("fn");
+
+        for (int i = 0; i < FrameDeduplicator.MAX_PENDING_KEYS + 10; i++) {
+            assertThat(filter.test(message("k" + i))).isTrue();
+        }
+        filter.processed();
+        filter.forgetPending();
+
+        // the oldest keys were no longer tracked, the next one's result was produced
+        assertThat(deduplicator.filter("fn").test(message("k0"))).isFalse();
+        assertThat(deduplicator.filter("fn").test(message("k10"))).isFalse();
+        assertThat(deduplicator.filter("fn").test(message("k11"))).isTrue();
+        assertThat(deduplicator.filter("fn").test(message("k" + (FrameDeduplicator.MAX_PENDING_KEYS + 9)))).isTrue();
+    }
+
+    private Message<byte[]> message(String key) {
+        return MessageBuilder.withPayload(new byte[0]).setHeader("idempotency-key", key).build();
+    }
+}
@@ -0,0 +1,50 @@
+package io.projectriff.invoker.server;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.projectriff.invoker.protocol.FrameHeaders;
+import io.projectriff.invoker.rpc.OutputFrame;
+import org.junit.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Unit tests for {@link FrameLatency}.
+ */
+public class FrameLatencyTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    private final FrameLatency latency = new FrameLatency(registry);
+
+    @Test
+    public void testTimingsAreRecordedAndEchoed() {
+        String sentAt = FrameHeaders.sentAtNow();
+        FrameLatency.Invocation invocation = latency.newInvocation("fn");
+        Message<byte[]> dispatched = invocation.dispatched(1, MessageBuilder.withPayload(new byte[0])
+                .setHeader(FrameLatency.ARRIVED_AT_HEADER, System.nanoTime())
+                .setHeader(FrameHeaders.SENT_AT, sentAt)
+                .build());
+        OutputFrame.Builder frame = OutputFrame.newBuilder();
+        invocation.produced(0, frame);
+
+        assertThat(registry.get("riff.invoker.latency.queue").tags("function", "fn", "arg_index", "1").timer().count()).isEqualTo(1);
+        assertThat(registry.get("riff.invoker.latency.network").tags("function", "fn", "arg_index", "1").timer().count()).isEqualTo(1);
+        assertThat(registry.get("riff.invoker.latency.processing").tags("function", "fn", "result_index", "0").timer().count()).isEqualTo(1);
+        assertThat(registry.get("riff.invoker.latency.total").tags("function", "fn", "result_index", "0").timer().count()).isEqualTo(1);
+        assertThat(dispatched.getHeaders()).doesNotContainKey(FrameLatency.ARRIVED_AT_HEADER).containsKey(FrameHeaders.SENT_AT);
+        assertThat(frame.getHeadersMap().get(FrameHeaders.SERVER_TIMING))
+                .matches("queue;dur=\\d+\\.\\d{3}, processing;dur=\\d+\\.\\d{3}, total;dur=\\d+\\.\\d{3}");
+        assertThat(frame.getHeadersMap().get(FrameHeaders.SENT_AT)).isEqualTo(sentAt);
+    }
+
+    @Test
+    public void testNothingRecordedBeforeDispatch() {
+        OutputFrame.Builder frame = OutputFrame.newBuilder();
+        latency.newInvocation("fn").produced(0, frame);
+
+        assertThat(registry.getMeters()).isEmpty();
+        assertThat(frame.getHeadersMap()).isEmpty();
+    }
+}
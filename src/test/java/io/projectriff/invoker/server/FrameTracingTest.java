@@ -0,0 +1,67 @@
+package io.projectriff.invoker.server;
+
+import io.opentelemetry.api.OpenTelemetry;
+import io.projectriff.invoker.rpc.InputFrame;
+import io.projectriff.invoker.rpc.OutputFrame;
+import org.junit.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Unit tests for {@link FrameTracing}.
+ */
+public class FrameTracingTest {
+
+    private static final String TRACEPARENT = "00-0af7651916cd43dd8448eb211c80319c-b7ad6b7169203331-01";
+
+    private static final String OTHER_TRACEPARENT = "00-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7-01";
+
+    private final FrameTracing tracing = new FrameTracing(OpenTelemetry.noop());
+
+    @Test
+    public void testTraceContextIsPropagatedToResultsInOrder() {
+        FrameTracing.Spans spans = tracing.newSpans();
+
+        Message<byte[]> first = spans.dispatched(input(TRACEPARENT));
+        Message<byte[]> second = spans.dispatched(input(OTHER_TRACEPARENT));
+
+        assertThat(first.getHeaders()).doesNotContainKey(FrameTracing.SPAN_HEADER);
+        assertThat(second.getHeaders()).doesNotContainKey(FrameTracing.SPAN_HEADER);
+        assertThat(encode(spans.produced(result())).getHeadersMap().get("traceparent"))
+                .startsWith("00-0af7651916cd43dd8448eb211c80319c-");
+        assertThat(encode(spans.produced(result())).getHeadersMap().get("traceparent"))
+                .startsWith("00-4bf92f3577b34da6a3ce929d0e0e4736-");
+        // results past the frames dispatched carry the context of the latest one
+        assertThat(encode(spans.produced(result())).getHeadersMap().get("traceparent"))
+                .startsWith("00-4bf92f3577b34da6a3ce929d0e0e4736-");
+    }
+
+    @Test
+    public void testNoTraceContextWithoutTracedFrames() {
+        FrameTracing.Spans spans = tracing.newSpans();
+
+        spans.dispatched(MessageBuilder.withPayload(new byte[0]).build());
+
+        assertThat(encode(spans.produced(result())).getHeadersMap()).doesNotContainKey("traceparent");
+        assertThat(encode(result()).getHeadersMap()).isEmpty();
+    }
+
+    private Message<byte[]> input(String traceparent) {
+        InputFrame frame = InputFrame.newBuilder().putHeaders("traceparent", traceparent).build();
+        return MessageBuilder.withPayload(new byte[0])
+                .setHeader(FrameTracing.SPAN_HEADER, tracing.start(frame, "fn"))
+                .build();
+    }
+
+    private Message<byte[]> result() {
+        return MessageBuilder.withPayload(new byte[0]).build();
+    }
+
+    private OutputFrame encode(Message<byte[]> result) {
+        OutputFrame.Builder frame = OutputFrame.newBuilder();
+        tracing.encoded(result.getHeaders(), frame);
+        return frame.build();
+    }
+}
@@ -0,0 +1,45 @@
+package io.projectriff.invoker.server;
+
+import org.junit.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
+import reactor.core.publisher.Flux;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Unit tests for {@link FunctionLanes}.
+ */
+public class FunctionLanesTest {
+
+    @Test
+    public void testKeysAreProcessedInOrderAcrossLanes() {
+        FunctionLanes lanes = new FunctionLanes("partition-key", 4);
+        Set<String> threads = ConcurrentHashMap.newKeySet();
+        Flux<Message<byte[]>> messages = Flux.range(0, 400)
+                .map(i -> MessageBuilder.withPayload(String.valueOf(i).getBytes(StandardCharsets.UTF_8))
+                        .setHeader("partition-key", "key" + i % 8)
+                        .build());
+
+        List<Message<byte[]>> outputs = lanes.apply(messages, lane -> lane
+                .doOnNext(m -> threads.add(Thread.currentThread().getName())))
+                .collectList()
+                .block(Duration.ofSeconds(5));
+
+        assertThat(outputs).hasSize(400);
+        Map<Object, List<Integer>> byKey = outputs.stream().collect(Collectors.groupingBy(
+                m -> m.getHeaders().get("partition-key"),
+                Collectors.mapping(m -> Integer.valueOf(new String(m.getPayload(), StandardCharsets.UTF_8)), Collectors.toList())));
+        assertThat(byKey).hasSize(8);
+        byKey.values().forEach(values -> assertThat(values).isSorted());
+        assertThat(threads).hasSizeGreaterThan(1).allMatch(name -> name.startsWith("riff-lane"));
+    }
+}
@@ -0,0 +1,84 @@
+package io.projectriff.invoker.server;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.cloud.function.context.FunctionRegistration;
+import org.springframework.cloud.function.context.FunctionType;
+import org.springframework.cloud.function.context.catalog.SimpleFunctionRegistry;
+import org.springframework.core.convert.support.DefaultConversionService;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.converter.CompositeMessageConverter;
+import org.springframework.messaging.converter.StringMessageConverter;
+import org.springframework.messaging.support.MessageBuilder;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Unit tests for {@link FunctionPipeline}.
+ */
+public class FunctionPipelineTest {
+
+    private final SimpleFunctionRegistry catalog = new SimpleFunctionRegistry(new DefaultConversionService(),
+            new CompositeMessageConverter(Collections.singletonList(new StringMessageConverter())));
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    private final List<Object> intermediates = new CopyOnWriteArrayList<>();
+
+    @Before
+    public void registerFunctions() {
+        register("parse", (Function<String, StringBuilder>) StringBuilder::new, String.class, StringBuilder.class);
+        register("enrich", (Function<StringBuilder, StringBuilder>) sb -> {
+            intermediates.add(sb);
+            return sb.append('!');
+        }, StringBuilder.class, StringBuilder.class);
+        register("score", (Function<StringBuilder, String>) sb -> {
+            intermediates.add(sb);
+            return sb.toString().toUpperCase();
+        }, StringBuilder.class, String.class);
+    }
+
+    @Test
+    public void testStagesAreFusedAndTimed() {
+        Function<Object, Object> function = FunctionPipeline.lookup(catalog, "parse|enrich|score", new String[]{"text/plain"}, registry);
+
+        assertThat(function).isInstanceOf(FunctionPipeline.class);
+        StepVerifier.create(Flux.from((Flux<Message<byte[]>>) function.apply(Flux.just(message("a"), message("b"))))
+                .map(m -> new String(m.getPayload(), StandardCharsets.UTF_8)))
+                .expectNext("A!", "B!")
+                .verifyComplete();
+        // the very object produced by a stage is handed to the next one
+        assertThat(intermediates).hasSize(4);
+        assertThat(intermediates.get(0)).isSameAs(intermediates.get(1));
+        assertThat(intermediates.get(2)).isSameAs(intermediates.get(3));
+        for (String stage : new String[]{"parse", "enrich", "score"}) {
+            assertThat(registry.get("riff.invoker.stage").tags("function", "parse|enrich|score", "stage", stage)
+                    .timer().count()).isEqualTo(2);
+        }
+    }
+
+    @Test
+    public void testUnknownStage() {
+        assertThat(FunctionPipeline.lookup(catalog, "parse|unknown", new String[]{"text/plain"}, registry)).isNull();
+    }
+
+    private void register(String name, Function<?, ?> function, Class<?> input, Class<?> output) {
+        catalog.register(new FunctionRegistration<>(function, name).type(FunctionType.from(input).to(output)));
+    }
+
+    private Message<byte[]> message(String payload) {
+        return MessageBuilder.withPayload(payload.getBytes(StandardCharsets.UTF_8))
+                .setHeader(MessageHeaders.CONTENT_TYPE, "text/plain")
+                .build();
+    }
+}
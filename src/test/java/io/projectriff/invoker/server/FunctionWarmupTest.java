@@ -0,0 +1,107 @@
+package io.projectriff.invoker.server;
+
+import com.google.protobuf.ByteString;
+import org.junit.Test;
+import org.springframework.cloud.function.context.FunctionRegistration;
+import org.springframework.cloud.function.context.FunctionType;
+import org.springframework.cloud.function.context.catalog.SimpleFunctionRegistry;
+import org.springframework.core.convert.support.DefaultConversionService;
+import org.springframework.messaging.converter.CompositeMessageConverter;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.converter.StringMessageConverter;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Unit tests for {@link FunctionWarmup}.
+ */
+public class FunctionWarmupTest {
+
+    @Test
+    public void testFunctionIsInvokedWithSyntheticPayloadWithoutSamples() {
+        List<Integer> seen = new CopyOnWriteArrayList<>();
+        Function<Integer, Integer> divider = i -> {
+            seen.add(i);
+            return 100 / i;
+        };
+        FunctionWarmup warmup = warmup(catalog(divider, Integer.class, Integer.class));
+        warmup.setIterations(3);
+        warmup.setSynthetic(true);
+
+        assertThat(warmup.run()).isEqualTo(3);
+        assertThat(seen).containsExactly(1, 1, 1);
+    }
+
+    @Test
+    public void testFunctionIsOnlyResolvedWithoutSamples() {
+        List<Integer> seen = new CopyOnWriteArrayList<>();
+        Function<Integer, Integer> recorder = i -> {
+            seen.add(i);
+            return i;
+        };
+        FunctionWarmup warmup = warmup(catalog(recorder, Integer.class, Integer.class));
+
+        assertThat(warmup.run()).isEqualTo(0);
+        assertThat(seen).isEmpty();
+    }
+
+    @Test
+    public void testFunctionIsInvokedWithSamples() {
+        List<String> seen = new CopyOnWriteArrayList<>();
+        Function<String, String> echo = s -> {
+            seen.add(s);
+            return s;
+        };
+        FunctionWarmup warmup = warmup(catalog(echo, String.class, String.class));
+        warmup.setIterations(2);
+        warmup.setSamples(Arrays.asList(ByteString.copyFromUtf8("a"), ByteString.copyFromUtf8("b")), "text/plain");
+
+        assertThat(warmup.run()).isEqualTo(2);
+        assertThat(seen).containsExactly("a", "b", "a", "b");
+    }
+
+    @Test
+    public void testNeverCompletingFunctionIsWaitedForOnlyOnce() {
+        Function<Flux<String>, Flux<String>> never = in -> Flux.never();
+        FunctionWarmup warmup = warmup(catalog(never, Flux.class, Flux.class));
+        warmup.setTimeout(Duration.ofMillis(200));
+        warmup.setSynthetic(true);
+
+        long start = System.nanoTime();
+        assertThat(warmup.run()).isEqualTo(0);
+        assertThat(Duration.ofNanos(System.nanoTime() - start)).isLessThan(Duration.ofSeconds(2));
+    }
+
+    @Test
+    public void testSyntheticPayloadMatchesInputType() {
+        assertThat(FunctionWarmup.syntheticPayload(int.class).toStringUtf8()).isEqualTo("1");
+        assertThat(FunctionWarmup.syntheticPayload(Boolean.class).toStringUtf8()).isEqualTo("true");
+        assertThat(FunctionWarmup.syntheticPayload(String.class).toStringUtf8()).isEqualTo("\"w\"");
+        assertThat(FunctionWarmup.syntheticPayload(List.class).toStringUtf8()).isEqualTo("[]");
+        assertThat(FunctionWarmup.syntheticPayload(byte[].class).toStringUtf8()).isEqualTo("{}");
+        assertThat(FunctionWarmup.syntheticPayload(Map.class).toStringUtf8()).isEqualTo("{}");
+    }
+
+    private FunctionWarmup warmup(SimpleFunctionRegistry catalog) {
+        return new FunctionWarmup(catalog, "fn");
+    }
+
+    private <T, R> SimpleFunctionRegistry catalog(Function<T, R> function, Class<?> inputType, Class<?> outputType) {
+        SimpleFunctionRegistry catalog = new SimpleFunctionRegistry(new DefaultConversionService(),
+                new CompositeMessageConverter(Arrays.asList(new MappingJackson2MessageConverter(), new StringMessageConverter())));
+        FunctionType type = FunctionType.from(inputType).to(outputType);
+        if (Flux.class.equals(inputType)) {
+            type = FunctionType.from(String.class).to(String.class).wrap(Flux.class);
+        }
+        catalog.register(new FunctionRegistration<>(function, "fn").type(type));
+        return catalog;
+    }
+}
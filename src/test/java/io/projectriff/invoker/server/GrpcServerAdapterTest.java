@@ -0,0 +1,558 @@
+package io.projectriff.invoker.server;
+
+import com.google.protobuf.ByteString;
+import io.grpc.Status;
+import io.grpc.StatusException;
+import io.opentelemetry.api.OpenTelemetry;
+import io.projectriff.invoker.protocol.ChunkCodec;
+import io.projectriff.invoker.protocol.FrameHeaders;
+import io.projectriff.invoker.rpc.InputFrame;
+import io.projectriff.invoker.rpc.InputSignal;
+import io.projectriff.invoker.rpc.OutputSignal;
+import io.projectriff.invoker.rpc.StartFrame;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Test;
+import org.springframework.cloud.function.context.FunctionRegistration;
+import org.springframework.cloud.function.context.FunctionType;
+import org.springframework.cloud.function.context.catalog.SimpleFunctionRegistry;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.convert.support.DefaultConversionService;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.converter.ByteArrayMessageConverter;
+import org.springframework.messaging.converter.CompositeMessageConverter;
+import org.springframework.messaging.converter.StringMessageConverter;
+import org.springframework.messaging.support.MessageBuilder;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.UnicastProcessor;
+import reactor.test.StepVerifier;
+import reactor.util.function.Tuple2;
+import reactor.util.function.Tuples;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Unit tests for {@link GrpcServerAdapter}.
+ */
+public class GrpcServerAdapterTest {
+
+    @Test
+    public void testInvocationsInFlightDrainOnReplacedCatalog() {
+        GrpcServerAdapter adapter = new GrpcServerAdapter(catalog(s -> "v1:" + s), "fn");
+        AtomicBoolean released = new AtomicBoolean();
+        adapter.setFunctionCatalog(catalog(s -> "v2:" + s), () -> released.set(true));
+
+        UnicastProcessor<InputSignal> inFlight = UnicastProcessor.create();
+        List<String> inFlightResults = new CopyOnWriteArrayList<>();
+        Disposable subscription = adapter.invoke(inFlight).map(this::payload).subscribe(inFlightResults::add);
+        inFlight.onNext(start());
+        inFlight.onNext(data("a"));
+        adapter.setFunctionCatalog(catalog(s -> "v3:" + s), () -> {
+        });
+        inFlight.onNext(data("b"));
+
+        StepVerifier.create(adapter.invoke(Flux.just(start(), data("c"))).map(this::payload))
+                .expectNext("v3:c")
+                .verifyComplete();
+        assertThat(released).isFalse();
+
+        inFlight.onComplete();
+        assertThat(subscription.isDisposed()).isTrue();
+        assertThat(inFlightResults).containsExactly("v2:a", "v2:b");
+        assertThat(released).isTrue();
+    }
+
+    @Test
+    public void testInvocationsAreRoutedByStartFrameFunctionName() {
+        SimpleFunctionRegistry catalog = catalog(s -> "fn:" + s);
+        catalog.register(new FunctionRegistration<Function<String, String>>(s -> "other:" + s, "other")
+                .type(FunctionType.from(String.class).to(String.class)));
+        GrpcServerAdapter adapter = new GrpcServerAdapter(catalog, "fn");
+        adapter.setFunctionNames(Collections.singletonList("other"));
+
+        StepVerifier.create(adapter.invoke(Flux.just(start("other"), data("a"))).map(this::payload))
+                .expectNext("other:a")
+                .verifyComplete();
+        StepVerifier.create(adapter.invoke(Flux.just(start("fn"), data("b"))).map(this::payload))
+                .expectNext("fn:b")
+                .verifyComplete();
+    }
+
+    @Test
+    public void testInvocationsWithoutFunctionNameAreRoutedToDefaultFunction() {
+        SimpleFunctionRegistry catalog = catalog(s -> "fn:" + s);
+        catalog.register(new FunctionRegistration<Function<String, String>>(s -> "other:" + s, "other")
+                .type(FunctionType.from(String.class).to(String.class)));
+        GrpcServerAdapter adapter = new GrpcServerAdapter(catalog, "fn");
+        adapter.setFunctionNames(Collections.singletonList("other"));
+
+        StepVerifier.create(adapter.invoke(Flux.just(start(""), data("a"))).map(this::payload))
+                .expectNext("fn:a")
+                .verifyComplete();
+    }
+
+    @Test
+    public void testInvocationsOfFunctionNotHostedAreRejected() {
+        SimpleFunctionRegistry catalog = catalog(s -> "fn:" + s);
+        // registered in the catalog, but not among the functions the invoker hosts
+        catalog.register(new FunctionRegistration<Function<String, String>>(s -> "other:" + s, "other")
+                .type(FunctionType.from(String.class).to(String.class)));
+        GrpcServerAdapter adapter = new GrpcServerAdapter(catalog, "fn");
+
+        StepVerifier.create(adapter.invoke(Flux.just(start("other"), data("a"))))
+                .verifyErrorSatisfies(e -> assertThat(((StatusException) e).getStatus().getCode()).isEqualTo(Status.Code.NOT_FOUND));
+    }
+
+    @Test
+    public void testChunkedInputIsStreamedToInputStreamFunction() {
+        Function<InputStream, String> length = in -> {
+            try (in) {
+                return String.valueOf(in.readAllBytes().length);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        };
+        GrpcServerAdapter adapter = new GrpcServerAdapter(catalog(length, InputStream.class), "fn");
+        InputFrame payload = InputFrame.newBuilder()
+                .setContentType("application/octet-stream")
+                .setPayload(ByteString.copyFrom(new byte[10_000]))
+                .build();
+
+        StepVerifier.create(adapter.invoke(Flux.fromIterable(ChunkCodec.split(payload, 1024)).startWith(start())).map(this::payload))
+                .expectNext("10000")
+                .verifyComplete();
+    }
+
+    @Test
+    public void testChunksStreamedToInputStreamFunctionAreOnlyRequestedAFewAtATime() throws InterruptedException {
+        CountDownLatch reading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Function<InputStream, String> length = in -> {
+            try (in) {
+                in.read();
+                reading.countDown();
+                release.await();
+                return String.valueOf(1 + in.readAllBytes().length);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        };
+        GrpcServerAdapter adapter = new GrpcServerAdapter(catalog(length, InputStream.class), "fn");
+        InputFrame payload = InputFrame.newBuilder()
+                .setContentType("application/octet-stream")
+                .setPayload(ByteString.copyFrom(new byte[100 * 1024]))
+                .build();
+        AtomicInteger emitted = new AtomicInteger();
+        Flux<InputSignal> signals = Flux.fromIterable(ChunkCodec.split(payload, 1024))
+                .doOnNext(chunk -> emitted.incrementAndGet())
+                .startWith(start());
+
+        StepVerifier.create(adapter.invoke(signals).map(this::payload))
+                .then(() -> {
+                    try {
+                        assertThat(reading.await(5, TimeUnit.SECONDS)).isTrue();
+                        // give the invoker a chance to buffer more than it should
+                        Thread.sleep(200);
+                    } catch (InterruptedException e) {
+                        throw new IllegalStateException(e);
+                    }
+                    assertThat(emitted).hasValueLessThan(32);
+                    release.countDown();
+                })
+                .expectNext(String.valueOf(100 * 1024))
+                .verifyComplete();
+    }
+
+    @Test
+    public void testArraysReusedByFunctionAreCopiedIntoOutputFrames() {
+        byte[] buffer = new byte[1];
+        Function<String, byte[]> reusing = s -> {
+            buffer[0] = (byte) s.charAt(0);
+            return buffer;
+        };
+        SimpleFunctionRegistry catalog = new SimpleFunctionRegistry(new DefaultConversionService(),
+                new CompositeMessageConverter(Arrays.asList(new StringMessageConverter(), new ByteArrayMessageConverter())));
+        catalog.register(new FunctionRegistration<>(reusing, "fn").type(FunctionType.from(String.class).to(byte[].class)));
+        GrpcServerAdapter adapter = new GrpcServerAdapter(catalog, "fn");
+        InputSignal start = InputSignal.newBuilder()
+                .setStart(StartFrame.newBuilder().addExpectedContentTypes("application/octet-stream").addInputNames("in"))
+                .build();
+
+        StepVerifier.create(adapter.invoke(Flux.just(start, data("a"), data("b"))).collectList())
+                .assertNext(outs -> assertThat(outs).extracting(this::payload).containsExactly("a", "b"))
+                .verifyComplete();
+    }
+
+    @Test
+    public void testInternalHeadersAreNotSeenByFunction() {
+        Function<Message<String>, String> headers = m -> String.join(",", new TreeSet<>(m.getHeaders().keySet()));
+        SimpleFunctionRegistry catalog = new SimpleFunctionRegistry(new DefaultConversionService(),
+                new CompositeMessageConverter(Collections.singletonList(new StringMessageConverter())));
+        catalog.register(new FunctionRegistration<>(headers, "fn").type(ResolvableType.forClassWithGenerics(Function.class,
+                ResolvableType.forClassWithGenerics(Message.class, String.class), ResolvableType.forClass(String.class)).getType()));
+        GrpcServerAdapter adapter = new GrpcServerAdapter(catalog, "fn");
+        adapter.setLatencyMetrics(new SimpleMeterRegistry());
+
+        StepVerifier.create(adapter.invoke(Flux.just(start(), data("a"))))
+                .assertNext(out -> {
+                    assertThat(out.getData().getHeadersMap()).containsKey(FrameHeaders.SERVER_TIMING);
+                    assertThat(payload(out)).contains(MessageHeaders.CONTENT_TYPE).doesNotContain(FrameLatency.ARRIVED_AT_HEADER);
+                })
+                .verifyComplete();
+    }
+
+    @Test
+    public void testQueueLatencyIncludesWaitForFairScheduler() throws InterruptedException {
+        FairScheduler scheduler = new FairScheduler(1, Duration.ofMillis(1));
+        CountDownLatch busy = new CountDownLatch(1);
+        // keep the only worker busy, so that the next frame waits for its turn
+        scheduler.schedule(Flux.just(0), 0)
+                .doOnNext(i -> {
+                    busy.countDown();
+                    try {
+                        Thread.sleep(200);
+                    } catch (InterruptedException e) {
+                        throw new IllegalStateException(e);
+                    }
+                })
+                .subscribe();
+        assertThat(busy.await(5, TimeUnit.SECONDS)).isTrue();
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        GrpcServerAdapter adapter = new GrpcServerAdapter(catalog(s -> s), "fn");
+        adapter.setLatencyMetrics(registry);
+        adapter.setFairScheduler(scheduler);
+
+        StepVerifier.create(adapter.invoke(Flux.just(start(), data("a"))).map(this::payload))
+                .expectNext("a")
+                .verifyComplete();
+        assertThat(registry.get("riff.invoker.latency.queue").timer().max(TimeUnit.MILLISECONDS)).isGreaterThan(100);
+    }
+
+    @Test
+    public void testOutputFramesCarryTraceContextOfTheirInputAcrossLanes() {
+        GrpcServerAdapter adapter = new GrpcServerAdapter(catalog(String::toUpperCase), "fn");
+        adapter.setOpenTelemetry(OpenTelemetry.noop());
+        adapter.setPartitioning("partition-key", 4);
+        List<InputSignal> signals = new ArrayList<>();
+        signals.add(start());
+        for (int i = 0; i < 20; i++) {
+            InputSignal signal = data("t" + i);
+            signals.add(signal.toBuilder()
+                    .setData(signal.getData().toBuilder()
+                            .putHeaders("partition-key", String.valueOf(i % 4))
+                            .putHeaders("traceparent", String.format("00-%032x-b7ad6b7169203331-01", i + 1)))
+                    .build());
+        }
+
+        List<OutputSignal> outputs = adapter.invoke(Flux.fromIterable(signals)).collectList().block(Duration.ofSeconds(5));
+
+        assertThat(outputs).hasSize(20).allSatisfy(out -> {
+            int i = Integer.parseInt(payload(out).substring(1));
+            assertThat(out.getData().getHeadersMap().get("traceparent")).startsWith(String.format("00-%032x-", i + 1));
+        });
+    }
+
+    @Test
+    public void testRepeatedInputsAreServedFromResultCache() {
+        AtomicInteger calls = new AtomicInteger();
+        GrpcServerAdapter adapter = new GrpcServerAdapter(catalog(s -> calls.incrementAndGet() + ":" + s), "fn");
+        adapter.setResultCache(new ResultCache(1024 * 1024, Duration.ofMinutes(1)));
+
+        StepVerifier.create(adapter.invoke(Flux.just(start(), data("a"), data("b"), data("a"))).map(this::payload))
+                .expectNext("1:a", "2:b", "1:a")
+                .verifyComplete();
+        StepVerifier.create(adapter.invoke(Flux.just(start(), data("b"), data("c"))).map(this::payload))
+                .expectNext("2:b", "3:c")
+                .verifyComplete();
+        assertThat(calls).hasValue(3);
+    }
+
+    @Test
+    public void testResultsOfReplacedFunctionAreNotServedFromResultCache() {
+        GrpcServerAdapter adapter = new GrpcServerAdapter(catalog(s -> "v1:" + s), "fn");
+        adapter.setResultCache(new ResultCache(1024 * 1024, Duration.ofMinutes(1)));
+
+        StepVerifier.create(adapter.invoke(Flux.just(start(), data("a"))).map(this::payload))
+                .expectNext("v1:a")
+                .verifyComplete();
+        adapter.setFunctionCatalog(catalog(s -> "v2:" + s), () -> {
+        });
+        StepVerifier.create(adapter.invoke(Flux.just(start(), data("a"))).map(this::payload))
+                .expectNext("v2:a")
+                .verifyComplete();
+    }
+
+    @Test
+    public void testFunctionsOfMessagesAreNotMemoized() {
+        Function<Message<String>, String> keyed = m -> m.getHeaders().get("idempotency-key") + ":" + m.getPayload();
+        SimpleFunctionRegistry catalog = new SimpleFunctionRegistry(new DefaultConversionService(),
+                new CompositeMessageConverter(Collections.singletonList(new StringMessageConverter())));
+        catalog.register(new FunctionRegistration<>(keyed, "fn").type(ResolvableType.forClassWithGenerics(Function.class,
+                ResolvableType.forClassWithGenerics(Message.class, String.class), ResolvableType.forClass(String.class)).getType()));
+        GrpcServerAdapter adapter = new GrpcServerAdapter(catalog, "fn");
+        adapter.setResultCache(new ResultCache(1024 * 1024, Duration.ofMinutes(1)));
+
+        StepVerifier.create(adapter.invoke(Flux.just(start(), data("a", "1"), data("a", "2"))).map(this::payload))
+                .expectNext("1:a", "2:a")
+                .verifyComplete();
+    }
+
+    @Test
+    public void testDuplicateInputsAreDroppedOrReplayed() {
+        AtomicInteger calls = new AtomicInteger();
+        GrpcServerAdapter adapter = new GrpcServerAdapter(catalog(s -> calls.incrementAndGet() + ":" + s), "fn");
+        adapter.setDeduplicator(new FrameDeduplicator("idempotency-key", Duration.ofMinutes(1), 1000));
+
+        StepVerifier.create(adapter.invoke(Flux.just(start(), data("a", "1"), data("a", "1"), data("a"), data("b", "2"))).map(this::payload))
+                .expectNext("1:a", "2:a", "3:b")
+                .verifyComplete();
+
+        FrameDeduplicator replaying = new FrameDeduplicator("idempotency-key", Duration.ofMinutes(1), 1000);
+        replaying.setReplay(1024 * 1024);
+        adapter.setDeduplicator(replaying);
+        StepVerifier.create(adapter.invoke(Flux.just(start(), data("c", "3"), data("c", "3"))).map(this::payload))
+                .expectNext("4:c", "4:c")
+                .verifyComplete();
+        assertThat(calls).hasValue(4);
+    }
+
+    @Test
+    public void testRedeliveryOfFailedInputIsProcessedAgain() {
+        AtomicInteger calls = new AtomicInteger();
+        Function<String, String> failingOnce = s -> {
+            if (calls.incrementAndGet() == 2) {
+                throw new IllegalStateException("boom");
+            }
+            return calls.get() + ":" + s;
+        };
+        GrpcServerAdapter adapter = new GrpcServerAdapter(catalog(failingOnce), "fn");
+        adapter.setDeduplicator(new FrameDeduplicator("idempotency-key", Duration.ofMinutes(1), 1000));
+
+        // only the frame whose result wasn't produced is processed again
+        StepVerifier.create(adapter.invoke(Flux.just(start(), data("x", "0"), data("a", "1"))).map(this::payload))
+                .expectNext("1:x")
+                .expectError(StatusException.class)
+                .verify();
+        StepVerifier.create(adapter.invoke(Flux.just(start(), data("x", "0"), data("a", "1"), data("a", "1"))).map(this::payload))
+                .expectNext("3:a")
+                .verifyComplete();
+
+        calls.set(1);
+        FrameDeduplicator replaying = new FrameDeduplicator("idempotency-key", Duration.ofMinutes(1), 1000);
+        replaying.setReplay(1024 * 1024);
+        adapter.setDeduplicator(replaying);
+        adapter.setIsolateErrors(true);
+        StepVerifier.create(adapter.invoke(Flux.just(start(), data("b", "2"), data("b", "2"), data("b", "2"))).map(this::payload))
+                .expectNext("boom", "3:b", "3:b")
+                .verifyComplete();
+    }
+
+    @Test
+    public void testArrayInputFunctionIsGivenAnArrayWhateverItsArity() {
+        Function<Flux<Message<byte[]>>[], Flux<Message<byte[]>>> indexed = inputs -> Flux.range(0, inputs.length)
+                .concatMap(i -> inputs[i].map(m -> MessageBuilder.withPayload((i + ":" + new String(m.getPayload(), StandardCharsets.UTF_8)).getBytes(StandardCharsets.UTF_8))
+                        .setHeader(MessageHeaders.CONTENT_TYPE, "text/plain")
+                        .build()));
+        GrpcServerAdapter adapter = new GrpcServerAdapter(arrayCatalog(indexed), "fn");
+
+        for (int arity : new int[]{1, 3, 9}) {
+            List<InputSignal> signals = new ArrayList<>();
+            List<String> expected = new ArrayList<>();
+            signals.add(start(arity));
+            for (int i = 0; i < arity; i++) {
+                signals.add(data("x" + i, i));
+                expected.add(i + ":x" + i);
+            }
+            StepVerifier.create(adapter.invoke(Flux.fromIterable(signals)).map(this::payload))
+                    .expectNextSequence(expected)
+                    .verifyComplete();
+        }
+    }
+
+    @Test
+    public void testByteArrayFunctionIsNotMistakenForArrayInputFunction() {
+        Function<byte[], String> length = bytes -> String.valueOf(bytes.length);
+        GrpcServerAdapter adapter = new GrpcServerAdapter(catalog(length, byte[].class), "fn");
+        InputSignal startWithoutInputNames = InputSignal.newBuilder()
+                .setStart(StartFrame.newBuilder().addExpectedContentTypes("text/plain"))
+                .build();
+
+        StepVerifier.create(adapter.invoke(Flux.just(startWithoutInputNames, data("abc"))).map(this::payload))
+                .expectNext("3")
+                .verifyComplete();
+    }
+
+    @Test
+    public void testIsolatedErrorsOfFunctionOfSingleValuesProduceErrorFrames() {
+        Function<String, String> upper = s -> {
+            if (s.equals("b")) {
+                throw new IllegalArgumentException("no b");
+            }
+            return s.toUpperCase();
+        };
+        GrpcServerAdapter adapter = new GrpcServerAdapter(catalog(upper), "fn");
+        adapter.setIsolateErrors(true);
+        InputSignal failing = data("b");
+        failing = failing.toBuilder().setData(failing.getData().toBuilder().putHeaders("correlationId", "42")).build();
+
+        StepVerifier.create(adapter.invoke(Flux.just(start(), data("a"), failing, data("c"))))
+                .assertNext(out -> assertThat(payload(out)).isEqualTo("A"))
+                .assertNext(out -> {
+                    assertThat(out.getData().getResultIndex()).isEqualTo(0);
+                    assertThat(out.getData().getHeadersMap())
+                            .containsEntry(FrameHeaders.ERROR_STATUS, "UNKNOWN")
+                            .containsEntry("correlationId", "42");
+                    assertThat(payload(out)).isEqualTo("no b");
+                })
+                .assertNext(out -> assertThat(payload(out)).isEqualTo("C"))
+                .verifyComplete();
+    }
+
+    @Test
+    public void testIsolatedErrorsDontOverrideErrorHandlingOfStreamingFunction() {
+        Function<Flux<String>, Flux<String>> recovering = in -> in
+                .map(s -> {
+                    if (s.equals("b")) {
+                        throw new IllegalArgumentException("no b");
+                    }
+                    return s.toUpperCase();
+                })
+                .onErrorResume(e -> Flux.just("recovered"));
+        SimpleFunctionRegistry catalog = new SimpleFunctionRegistry(new DefaultConversionService(),
+                new CompositeMessageConverter(Collections.singletonList(new StringMessageConverter())));
+        catalog.register(new FunctionRegistration<>(recovering, "fn").type(FunctionType.from(String.class).to(String.class).wrap(Flux.class)));
+        GrpcServerAdapter adapter = new GrpcServerAdapter(catalog, "fn");
+        adapter.setIsolateErrors(true);
+
+        StepVerifier.create(adapter.invoke(Flux.just(start(), data("a"), data("b"), data("c"))).map(this::payload))
+                .expectNext("A", "recovered")
+                .verifyComplete();
+    }
+
+    @Test
+    public void testIsolatedEncodingErrorsProduceErrorFramesOnTheirResultIndex() {
+        Function<Flux<Message<byte[]>>[], Tuple2<Flux<Message<byte[]>>, Flux<Message<byte[]>>>> split = inputs -> Tuples.of(
+                inputs[0].map(m -> MessageBuilder.withPayload(m.getPayload()).setHeader(MessageHeaders.CONTENT_TYPE, "text/plain").build()),
+                inputs[1].map(m -> MessageBuilder.withPayload(m.getPayload()).setHeader(MessageHeaders.CONTENT_TYPE, "not a mime type").build()));
+        SimpleFunctionRegistry catalog = new SimpleFunctionRegistry(new DefaultConversionService(),
+                new CompositeMessageConverter(Collections.singletonList(new StringMessageConverter())));
+        Type type = ResolvableType.forClassWithGenerics(Function.class,
+                ResolvableType.forArrayComponent(ResolvableType.forClass(Flux.class)),
+                ResolvableType.forClassWithGenerics(Flux.class, Message.class)).getType();
+        catalog.register(new FunctionRegistration<>(split, "fn").type(type));
+        GrpcServerAdapter adapter = new GrpcServerAdapter(catalog, "fn");
+        adapter.setIsolateErrors(true);
+        InputSignal start = start(2).toBuilder()
+                .setStart(start(2).getStart().toBuilder().addExpectedContentTypes("text/plain"))
+                .build();
+
+        StepVerifier.create(adapter.invoke(Flux.just(start, data("a", 0), data("b", 1)))
+                .map(out -> out.getData().getResultIndex() + ":" + out.getData().getHeadersOrDefault(FrameHeaders.ERROR_STATUS, "OK"))
+                .collectList())
+                .assertNext(outs -> assertThat(outs).containsExactlyInAnyOrder("0:OK", "1:UNKNOWN"))
+                .verifyComplete();
+    }
+
+    @Test
+    public void testErrorsAreReportedByTheirOwnType() {
+        Function<String, String> failing = s -> {
+            throw s.equals("state") ? new IllegalStateException(s) : new IllegalArgumentException(s);
+        };
+        GrpcServerAdapter adapter = new GrpcServerAdapter(catalog(failing), "fn");
+        ErrorReporter reporter = new ErrorReporter();
+        reporter.setBurst(1);
+        adapter.setErrorReporter(reporter);
+
+        for (String error : new String[]{"state", "state", "argument"}) {
+            StepVerifier.create(adapter.invoke(Flux.just(start(), data(error))))
+                    .verifyErrorSatisfies(e -> assertThat(((StatusException) e).getStatus().getCode()).isEqualTo(Status.Code.UNKNOWN));
+        }
+        assertThat(reporter.getSuppressed(IllegalStateException.class)).isEqualTo(1);
+        assertThat(reporter.getSuppressed(IllegalArgumentException.class)).isEqualTo(0);
+    }
+
+    private SimpleFunctionRegistry catalog(Function<String, String> function) {
+        return catalog(function, String.class);
+    }
+
+    private <T> SimpleFunctionRegistry catalog(Function<T, String> function, Class<T> inputType) {
+        SimpleFunctionRegistry catalog = new SimpleFunctionRegistry(new DefaultConversionService(),
+                new CompositeMessageConverter(Collections.singletonList(new StringMessageConverter())));
+        catalog.register(new FunctionRegistration<>(function, "fn").type(FunctionType.from(inputType).to(String.class)));
+        return catalog;
+    }
+
+    private SimpleFunctionRegistry arrayCatalog(Function<Flux<Message<byte[]>>[], Flux<Message<byte[]>>> function) {
+        SimpleFunctionRegistry catalog = new SimpleFunctionRegistry(new DefaultConversionService(),
+                new CompositeMessageConverter(Collections.singletonList(new StringMessageConverter())));
+        Type type = ResolvableType.forClassWithGenerics(Function.class,
+                ResolvableType.forArrayComponent(ResolvableType.forClass(Flux.class)),
+                ResolvableType.forClassWithGenerics(Flux.class, Message.class)).getType();
+        catalog.register(new FunctionRegistration<>(function, "fn").type(type));
+        return catalog;
+    }
+
+    private InputSignal start() {
+        return start(1);
+    }
+
+    private InputSignal start(String functionName) {
+        InputSignal signal = start();
+        return signal.toBuilder()
+                .setStart(signal.getStart().toBuilder().setFunctionName(functionName))
+                .build();
+    }
+
+    private InputSignal start(int inputs) {
+        StartFrame.Builder start = StartFrame.newBuilder().addExpectedContentTypes("text/plain");
+        for (int i = 0; i < inputs; i++) {
+            start.addInputNames(String.valueOf(i));
+        }
+        return InputSignal.newBuilder().setStart(start).build();
+    }
+
+    private InputSignal data(String payload) {
+        return InputSignal.newBuilder()
+                .setData(InputFrame.newBuilder().setContentType("text/plain").setPayload(ByteString.copyFromUtf8(payload)))
+                .build();
+    }
+
+    private InputSignal data(String payload, int argIndex) {
+        InputSignal signal = data(payload);
+        return signal.toBuilder()
+                .setData(signal.getData().toBuilder().setArgIndex(argIndex))
+                .build();
+    }
+
+    private InputSignal data(String payload, String idempotencyKey) {
+        InputSignal signal = data(payload);
+        return signal.toBuilder()
+                .setData(signal.getData().toBuilder().putHeaders("idempotency-key", idempotencyKey))
+                .build();
+    }
+
+    private String payload(OutputSignal signal) {
+        return signal.getData().getPayload().toStringUtf8();
+    }
+}
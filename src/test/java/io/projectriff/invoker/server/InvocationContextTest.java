@@ -0,0 +1,56 @@
+package io.projectriff.invoker.server;
+
+import io.grpc.Context;
+import io.grpc.Deadline;
+import io.grpc.Status;
+import org.junit.Test;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Unit tests for {@link InvocationContext}.
+ */
+public class InvocationContextTest {
+
+    @Test
+    public void testCancellationCompletesOnCancel() throws Exception {
+        Context.CancellableContext grpcContext = Context.current().withCancellation();
+        InvocationContext context = grpcContext.call(InvocationContext::current);
+
+        assertThat(context.isCancelled()).isFalse();
+        assertThat(context.getDeadline()).isNull();
+
+        StepVerifier.create(context.cancellation())
+                .then(() -> grpcContext.cancel(null))
+                .verifyComplete();
+        assertThat(context.isCancelled()).isTrue();
+        assertThat(context.cancellationStatus().getCode()).isEqualTo(Status.Code.CANCELLED);
+    }
+
+    @Test
+    public void testDeadlineIsExposedInReactorContext() throws Exception {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        try {
+            Context.CancellableContext grpcContext = Context.current()
+                    .withDeadline(Deadline.after(10, TimeUnit.SECONDS), scheduler);
+            InvocationContext context = grpcContext.call(InvocationContext::current);
+
+            StepVerifier.create(Mono.subscriberContext()
+                    .map(c -> c.<Instant>get(InvocationContext.DEADLINE_KEY))
+                    .subscriberContext(context::addTo))
+                    .assertNext(deadline -> assertThat(deadline).isBetween(Instant.now(), Instant.now().plus(Duration.ofSeconds(10))))
+                    .verifyComplete();
+            grpcContext.cancel(null);
+        } finally {
+            scheduler.shutdownNow();
+        }
+    }
+}
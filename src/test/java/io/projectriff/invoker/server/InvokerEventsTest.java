@@ -0,0 +1,59 @@
+package io.projectriff.invoker.server;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.Test;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Unit tests for {@link InvokerEvents}.
+ */
+public class InvokerEventsTest {
+
+    @Test
+    public void testBackpressureStallsAreRecorded() throws Exception {
+        List<RecordedEvent> events = record("io.projectriff.invoker.BackpressureStall", () ->
+                StepVerifier.create(Flux.range(0, 3).transform(InvokerEvents.<Integer>backpressureStalls("fn")), 1)
+                        .expectNext(0)
+                        .thenRequest(1)
+                        .expectNext(1)
+                        .thenRequest(1)
+                        .expectNext(2)
+                        .verifyComplete());
+
+        assertThat(events).hasSize(2)
+                .allSatisfy(e -> assertThat(e.getString("function")).isEqualTo("fn"));
+    }
+
+    @Test
+    public void testNoStallWithUnboundedDemand() throws Exception {
+        List<RecordedEvent> events = record("io.projectriff.invoker.BackpressureStall", () ->
+                StepVerifier.create(Flux.range(0, 3).transform(InvokerEvents.<Integer>backpressureStalls("fn")))
+                        .expectNextCount(3)
+                        .verifyComplete());
+
+        assertThat(events).isEmpty();
+    }
+
+    private List<RecordedEvent> record(String eventName, Runnable action) throws Exception {
+        Path file = Files.createTempFile("invoker", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable(eventName);
+            recording.start();
+            action.run();
+            recording.stop();
+            recording.dump(file);
+            return RecordingFile.readAllEvents(file);
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
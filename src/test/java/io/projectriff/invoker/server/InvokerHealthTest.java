@@ -0,0 +1,106 @@
+package io.projectriff.invoker.server;
+
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.ServerInterceptors;
+import io.grpc.Status;
+import io.grpc.health.v1.HealthCheckRequest;
+import io.grpc.health.v1.HealthCheckResponse.ServingStatus;
+import io.grpc.health.v1.HealthGrpc;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.projectriff.invoker.client.FunctionClient;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.cloud.function.context.FunctionRegistration;
+import org.springframework.cloud.function.context.FunctionType;
+import org.springframework.cloud.function.context.catalog.SimpleFunctionRegistry;
+import org.springframework.core.convert.support.DefaultConversionService;
+import org.springframework.messaging.converter.CompositeMessageConverter;
+import org.springframework.messaging.converter.StringMessageConverter;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.function.Function;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Unit tests for {@link InvokerHealth}.
+ */
+public class InvokerHealthTest {
+
+    private final InvokerHealth health = new InvokerHealth();
+
+    private Server server;
+
+    private ManagedChannel channel;
+
+    @Before
+    public void setUp() throws IOException {
+        SimpleFunctionRegistry catalog = new SimpleFunctionRegistry(new DefaultConversionService(),
+                new CompositeMessageConverter(Collections.singletonList(new StringMessageConverter())));
+        Function<String, String> upper = String::toUpperCase;
+        catalog.register(new FunctionRegistration<>(upper, "fn").type(FunctionType.from(String.class).to(String.class)));
+        server = InProcessServerBuilder.forName("riff-health-test")
+                .addService(ServerInterceptors.intercept(new GrpcServerAdapter(catalog, "fn"), health))
+                .addService(health.getHealthService())
+                .build()
+                .start();
+        channel = InProcessChannelBuilder.forName("riff-health-test").build();
+    }
+
+    @After
+    public void tearDown() {
+        channel.shutdownNow();
+        server.shutdownNow();
+    }
+
+    @Test
+    public void testInvocationsAreRejectedUntilServing() {
+        assertThat(status()).isEqualTo(ServingStatus.NOT_SERVING);
+        StepVerifier.create(invoke("a"))
+                .verifyErrorSatisfies(e -> assertThat(Status.fromThrowable(e).getCode()).isEqualTo(Status.Code.UNAVAILABLE));
+
+        health.serving();
+
+        assertThat(status()).isEqualTo(ServingStatus.SERVING);
+        StepVerifier.create(invoke("a"))
+                .expectNext("A")
+                .verifyComplete();
+    }
+
+    @Test
+    public void testInvocationsAreRejectedForGoodOnceDraining() {
+        health.serving();
+        health.draining();
+
+        assertThat(status()).isEqualTo(ServingStatus.NOT_SERVING);
+        StepVerifier.create(invoke("a"))
+                .verifyErrorSatisfies(e -> assertThat(Status.fromThrowable(e).getCode()).isEqualTo(Status.Code.UNAVAILABLE));
+
+        health.serving();
+
+        assertThat(status()).isEqualTo(ServingStatus.NOT_SERVING);
+        assertThat(health.isServing()).isFalse();
+    }
+
+    private ServingStatus status() {
+        return HealthGrpc.newBlockingStub(channel).check(HealthCheckRequest.getDefaultInstance()).getStatus();
+    }
+
+    private Flux<String> invoke(String input) {
+        FunctionClient<Flux<String>, Flux<String>> client = FunctionClient.of(channel, String.class);
+        client.setMessageConverters(new StringMessageConverter());
+        // a rejection can surface while the client awaits the response, or later on the results
+        try {
+            return client.apply(Flux.just(input));
+        } catch (RuntimeException e) {
+            return Flux.error(Exceptions.unwrap(e));
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package io.projectriff.invoker.server;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Unit tests for {@link StateStore}.
+ */
+public class StateStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testStateSurvivesReopening() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("fn.state");
+        try (StateStore store = StateStore.open(file, 1024)) {
+            store.put("a", bytes("1"));
+            store.put("b", bytes("2"));
+            store.put("a", bytes("3"));
+            store.remove("b");
+            assertThat(store.putIfAbsent("c", bytes("4"))).isNull();
+        }
+
+        try (StateStore store = StateStore.open(file, 1024)) {
+            assertThat(store).containsOnlyKeys("a", "c");
+            assertThat(store.get("a")).isEqualTo(bytes("3"));
+            assertThat(store.replace("a", bytes("3"), bytes("5"))).isTrue();
+            assertThat(store.get("a")).isEqualTo(bytes("5"));
+        }
+    }
+
+    @Test
+    public void testStoreGrowsAndCompacts() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("fn.state");
+        try (StateStore store = StateStore.open(file, 64)) {
+            for (int i = 0; i < 1000; i++) {
+                store.put("key" + (i % 10), bytes("value" + i));
+            }
+            store.flush();
+            assertThat(store).hasSize(10);
+            assertThat(store.get("key9")).isEqualTo(bytes("value999"));
+        }
+
+        try (StateStore store = StateStore.open(file, 64)) {
+            assertThat(store).hasSize(10);
+            assertThat(store.get("key0")).isEqualTo(bytes("value990"));
+        }
+    }
+
+    private byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}